@@ -0,0 +1,288 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class represents a canonical k-ary prefix code. In a canonical code the code of every symbol is fully
+ * determined by the code length of each symbol, so a codebook can be transmitted as one length per symbol
+ * instead of a whole code tree.  Symbols are ordered by code length (symbols with the same length keep the order
+ * in which they were received), and consecutive symbols receive consecutive codes.
+ *
+ * Decoding does not walk tree nodes, it uses the classic first-code/offset tables: for every code length (L)
+ * the table holds the numeric value of the first code of that length, how many codes have that length and where
+ * the symbols of that length start in the sorted list of symbols.
+ *
+ * @author Sergio Delgado
+ */
+public class CanonicalCode
+{
+	int kFactor;			// k factor of the code (number of different digits).
+	String[] symbols;		// symbols in the order received (order agreed between sender and receiver).
+	int[] lengths;			// code length of each symbol, aligned with (symbols).
+	int maxLength;			// length of the longest code.
+
+	String[] sortedSymbols;	// symbols sorted in canonical order (by code length).
+	long[] firstCode;		// numeric value of the first code of each length (indexed by length).
+	int[] count;			// number of codes of each length (indexed by length).
+	int[] offset;			// position in sortedSymbols of the first symbol of each length (indexed by length).
+	HashMap<String, String> codes;	// code (as a string of digits) of every symbol.
+
+	/**
+	 * Constructor that builds the canonical code from the list of symbols and the code length of each one of them,
+	 * which is all the information that needs to be transmitted for a codebook.
+	 * @param symbols String array with the symbols of the code.
+	 * @param lengths int array with the code length of each symbol (aligned with symbols).
+	 * @param k int K factor of the code.
+	 */
+	public CanonicalCode(String[] symbols, int[] lengths, int k)
+	{
+		if (k < 2)
+			throw new InvalidKException();
+		if (symbols.length == 0 || symbols.length != lengths.length)
+			throw new InvalidTreeException();
+
+		kFactor = k;
+		this.symbols = symbols.clone();
+		this.lengths = lengths.clone();
+		maxLength = 0;
+
+		for (int i=0; i<lengths.length; i++)
+		{
+			if (lengths[i] < 1 || symbols[i] == null)	// every symbol needs a value and at least one digit.
+				throw new InvalidTreeException();
+			if (lengths[i] > maxLength)
+				maxLength = lengths[i];
+		}
+
+		if (maxLength > maxSupportedLength(k))		// codes would not fit in a long value.
+			throw new InvalidTreeException();
+
+		buildTables();
+	}
+
+	/**
+	 * Method that returns the longest code length that can be handled for a k factor without overflowing the
+	 * numeric value of the codes.
+	 * @param k int K factor of the code.
+	 * @return int value with the maximum code length.
+	 */
+	private static int maxSupportedLength(int k)
+	{
+		int length = 0;
+		long limit = 1;
+		while (limit <= Long.MAX_VALUE / k)
+		{
+			limit = limit * k;
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Helper method that sorts the symbols in canonical order and builds the first-code/offset tables. It also
+	 * checks that the lengths describe a valid prefix code (Kraft inequality), level by level.
+	 */
+	private void buildTables()
+	{
+		count = new int[maxLength + 1];
+		offset = new int[maxLength + 1];
+		firstCode = new long[maxLength + 1];
+
+		for (int i=0; i<lengths.length; i++)
+			count[lengths[i]]++;
+
+		for (int len=1; len<=maxLength; len++)			// symbols of each length start where previous length ended.
+			offset[len] = offset[len-1] + count[len-1];
+
+		sortedSymbols = new String[symbols.length];
+		int[] next = offset.clone();
+		for (int i=0; i<symbols.length; i++)			// stable counting sort by code length.
+			sortedSymbols[next[lengths[i]]++] = symbols[i];
+
+		long capacity = 1;		// number of different codes of the current length (k to the power len).
+		for (int len=1; len<=maxLength; len++)
+		{
+			capacity = capacity * kFactor;
+			if (len > 1)
+				firstCode[len] = (firstCode[len-1] + count[len-1]) * kFactor;
+
+			if (firstCode[len] + count[len] > capacity)	// more codes than available for this length.
+				throw new InvalidTreeException();
+		}
+
+		codes = new HashMap<String, String>();
+		for (int len=1; len<=maxLength; len++)
+			for (int j=0; j<count[len]; j++)
+				codes.putIfAbsent(sortedSymbols[offset[len] + j], digits(firstCode[len] + j, len));
+	}
+
+	/**
+	 * Helper method that returns the string of digits of a code given its numeric value and length.
+	 * @param code long Numeric value of the code.
+	 * @param len int Number of digits of the code.
+	 * @return String with the digits of the code (most significant digit first).
+	 */
+	private String digits(long code, int len)
+	{
+		char[] out = new char[len];
+		for (int i=len-1; i>=0; i--)
+		{
+			out[i] = Character.forDigit((int)(code % kFactor), kFactor);
+			code = code / kFactor;
+		}
+		return new String(out);
+	}
+
+	/**
+	 * Method that builds the canonical code equivalent to a code tree. The symbols are the leaves of the tree
+	 * (visited in Pre-Order) and their lengths are the depths of the leaves.
+	 * @param tree KTree<String> Code tree.
+	 * @return CanonicalCode with the same code lengths as the tree.
+	 */
+	public static CanonicalCode fromTree(KTree<String> tree)
+	{
+		if (tree.root == null)
+			throw new InvalidTreeException();
+
+		List<String> leafValues = new ArrayList<String>();
+		List<Integer> leafDepths = new ArrayList<Integer>();
+
+		ArrayDeque<KTree<String>.TreeNode<String>> nodes = new ArrayDeque<KTree<String>.TreeNode<String>>();
+		ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+		nodes.push(tree.root);
+		depths.push(0);
+
+		while (!nodes.isEmpty())		// Pre-Order traversal with an explicit stack.
+		{
+			KTree<String>.TreeNode<String> current = nodes.pop();
+			int depth = depths.pop();
+			boolean leaf = true;
+
+			for (int i=tree.kFactor-1; i>=0; i--)	// pushing children in reverse so they are visited left to right.
+			{
+				if (current.children[i] != null)
+				{
+					leaf = false;
+					nodes.push(current.children[i]);
+					depths.push(depth + 1);
+				}
+			}
+
+			if (leaf)
+			{
+				leafValues.add(current.value);
+				leafDepths.add(depth);
+			}
+		}
+
+		int[] lengths = new int[leafDepths.size()];
+		for (int i=0; i<lengths.length; i++)
+			lengths[i] = leafDepths.get(i);
+
+		return new CanonicalCode(leafValues.toArray(new String[0]), lengths, tree.kFactor);
+	}
+
+	/**
+	 * This method returns the k factor of the code.
+	 * @return int value with the number of different digits of the code.
+	 */
+	public int getK()
+	{
+		return kFactor;
+	}
+
+	/**
+	 * Method that returns the symbols of the code in the order they need to be transmitted.
+	 * @return String array with the symbols of the code.
+	 */
+	public String[] getSymbols()
+	{
+		return symbols.clone();
+	}
+
+	/**
+	 * Method that returns the code length of every symbol, which is the whole codebook of a canonical code.
+	 * @return int array with the code lengths (aligned with getSymbols()).
+	 */
+	public int[] getLengths()
+	{
+		return lengths.clone();
+	}
+
+	/**
+	 * Method that returns the code assigned to a symbol.
+	 * @param symbol String Symbol to look up.
+	 * @return String with the digits of the code of the symbol, or null if the symbol is not part of the code.
+	 */
+	public String getCode(String symbol)
+	{
+		return codes.get(symbol);
+	}
+
+	/**
+	 * Method that decodes a coded message by using the first-code/offset tables of the canonical code. It reads
+	 * one digit at a time accumulating the numeric value of the current code until it falls in the range of the
+	 * codes that have the current length.
+	 * @param codedMessage String Coded message about to be decoded.
+	 * @return String with the decoded message.
+	 */
+	public String decode(String codedMessage)
+	{
+		StringBuilder message = new StringBuilder();
+		long code = 0;		// numeric value of the digits read so far for the current symbol.
+		int len = 0;		// number of digits read so far for the current symbol.
+		byte[] digits = new byte[codedMessage.length()];
+		DigitParser.parse(codedMessage, kFactor, digits);	// converting and checking every digit in one pass.
+
+		for (int i=0; i<digits.length; i++)
+		{
+			code = code * kFactor + digits[i];
+			len++;
+			if (len > maxLength)
+				throw new InvalidMessageException(i, "no code for digits");
+
+			long index = code - firstCode[len];
+			if (index < count[len])			// code falls in the range of codes of this length.
+			{
+				message.append(sortedSymbols[offset[len] + (int)index]);
+				code = 0;
+				len = 0;
+			}
+		}
+
+		if (len != 0)
+			throw new InvalidMessageException(codedMessage.length(), "message ended in the middle of a code");
+
+		return message.toString();
+	}
+
+	/**
+	 * Method that builds the code tree of the canonical code, with the symbols as leaves and "_" as the value of
+	 * every internal node, so it can also be used with KTree.decode(). The nodes are linked directly following the
+	 * digits of each code (with KTree.Builder), so building the tree costs one step per digit of every code instead of
+	 * filling the array representation of a complete tree as deep as the longest code.
+	 * @return KTree<String> with the canonical code tree.
+	 */
+	public KTree<String> toTree()
+	{
+		KTree.Builder<String> builder = new KTree.Builder<String>(kFactor).internalValue("_");
+
+		for (int len=1; len<=maxLength; len++)
+		{
+			int[] digits = new int[len];
+			for (int j=0; j<count[len]; j++)
+			{
+				long code = firstCode[len] + j;
+				for (int d=len-1; d>=0; d--)	// digits of the code, the most significant first.
+				{
+					digits[d] = (int)(code % kFactor);
+					code = code / kFactor;
+				}
+				builder.code(sortedSymbols[offset[len] + j], digits);
+			}
+		}
+
+		return builder.build();
+	}
+}
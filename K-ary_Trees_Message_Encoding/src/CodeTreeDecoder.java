@@ -0,0 +1,811 @@
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class holds a code tree that has been validated and compiled into a table of moves, so messages can be
+ * decoded without checking every digit against the tree. The tree is checked only once, when the decoder is
+ * compiled: the root must be an internal node, every leaf must hold a value and the k factor must be valid.
+ *
+ * Every internal node of the tree becomes a state (the root is state 0). The table has one row per state and
+ * one column per digit plus an extra column used for characters that are not digits of the code, so the decoding
+ * loop only does one table lookup per digit.  A move leads to another internal node (positive value), to a leaf
+ * (negative value with the complement of the leaf index) or to the (MISSING) mark when the digit is not valid or
+ * leads to a child that does not exist. Decoders are immutable once compiled.
+ *
+ * Code trees with k = 16 or k = 256 can also decode messages stored as raw bytes (see decodeBytes()), with one
+ * digit per nibble or one digit per byte. Wide code trees are much shallower than binary ones for the same symbols,
+ * so each symbol takes fewer moves, and the digits are used as columns of the table without any conversion.
+ *
+ * @author Sergio Delgado
+ */
+public class CodeTreeDecoder
+{
+	static final int MISSING = Integer.MIN_VALUE;	// move that can not be made from a state.
+
+	final int kFactor;			// k factor of the code tree.
+	final int width;			// number of columns of the table (kFactor digits plus the invalid digit column).
+	final int[] moves;			// table of moves, (width) columns per state.
+	final String[] leaves;		// values of the leaves of the tree.
+	final int[] columnOf;		// column of the table for each ASCII character.
+	final String fingerprint;	// hash of the k factor, the table of moves and the leaves (same for equal code trees).
+	final int ratioLength;		// length of the leaf with the most characters per digit of its code,
+	final int ratioDepth;		// and the number of digits of its code (used to bound the size of decoded messages).
+
+	/**
+	 * Private constructor used by compile() once the table of moves has been built.
+	 * @param k int K factor of the code tree.
+	 * @param moves int array with the table of moves.
+	 * @param leaves String array with the values of the leaves.
+	 */
+	private CodeTreeDecoder(int k, int[] moves, String[] leaves)
+	{
+		kFactor = k;
+		width = k + 1;
+		this.moves = moves;
+		this.leaves = leaves;
+
+		columnOf = new int[128];
+		for (char c=0; c<128; c++)
+			columnOf[c] = column(c);
+		
+		fingerprint = computeFingerprint();
+
+		int[] depths = new int[moves.length / width];	// number of digits needed to reach each state.
+		int bestLength = 0;
+		int bestDepth = 1;
+		for (int state=0; state<depths.length; state++)	// states are numbered in Level-Order, parents first.
+		{
+			for (int i=0; i<kFactor; i++)
+			{
+				int next = moves[state * width + i];
+				if (next >= 0)
+					depths[next] = depths[state] + 1;
+				else if (next != MISSING && (long)leaves[~next].length() * bestDepth > (long)bestLength * (depths[state] + 1))
+				{
+					bestLength = leaves[~next].length();
+					bestDepth = depths[state] + 1;
+				}
+			}
+		}
+		ratioLength = bestLength;
+		ratioDepth = bestDepth;
+	}
+
+	/**
+	 * Helper method that computes the fingerprint of the decoder, a SHA-256 hash of the k factor, the table of moves
+	 * and the values of the leaves. States and leaves are numbered in Level-Order when compiling, so two code trees
+	 * with the same k factor, structure and leaf values always have the same fingerprint, whatever the values of
+	 * their internal nodes are.
+	 * @return String with the hash in hexadecimal.
+	 */
+	private String computeFingerprint()
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)		// every Java platform is required to support SHA-256.
+		{
+			throw new IllegalStateException(e);
+		}
+
+		digest.update(intBytes(kFactor));
+		for (int i=0; i<moves.length; i++)
+			digest.update(intBytes(moves[i]));
+		for (int i=0; i<leaves.length; i++)
+		{
+			byte[] value = leaves[i].getBytes(StandardCharsets.UTF_8);
+			digest.update(intBytes(value.length));		// the length keeps ("ab","c") apart from ("a","bc").
+			digest.update(value);
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest())
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+
+	/**
+	 * Helper method that returns the four bytes of an int value.
+	 * @param value int Value to convert.
+	 * @return byte array with the bytes of the value (most significant first).
+	 */
+	private static byte[] intBytes(int value)
+	{
+		return new byte[] { (byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value };
+	}
+
+	/**
+	 * Helper method that returns the column of the table that corresponds to a character of a coded message. The
+	 * digit value of the character is obtained the same way KTree.decode() does it.
+	 * @param c char Character of the coded message.
+	 * @return int value with the digit represented by c, or kFactor if c is not a digit of the code.
+	 */
+	private int column(char c)
+	{
+		int digit = Character.getNumericValue(c);
+		if (digit < 0 || digit >= kFactor)
+			return kFactor;
+		return digit;
+	}
+
+	/**
+	 * Method that validates a code tree and compiles it into a decoder. The tree is traversed in Level-Order and
+	 * every internal node receives the next state number.
+	 * @param tree KTree<String> Code tree to validate and compile.
+	 * @return CodeTreeDecoder for the tree.
+	 * @throws InvalidKException if the k factor of the tree is smaller than 2.
+	 * @throws InvalidTreeException if the tree is empty, the root is a leaf or a leaf does not hold a value.
+	 */
+	public static CodeTreeDecoder compile(KTree<String> tree)
+	{
+		int k = tree.kFactor;
+		if (k < 2)
+			throw new InvalidKException();
+		if (tree.root == null || isLeaf(tree.root, k))	// a leaf at the root can not be reached by any digit.
+			throw new InvalidTreeException();
+
+		List<String> leaves = new ArrayList<String>();
+		ArrayDeque<KTree<String>.TreeNode<String>> queue = new ArrayDeque<KTree<String>.TreeNode<String>>();
+		List<Integer> moves = new ArrayList<Integer>();
+
+		queue.add(tree.root);
+		int nextState = 1;				// state number for the next internal node found (root is state 0).
+
+		while (!queue.isEmpty())		// Level-Order traversal, internal nodes are removed in state order.
+		{
+			KTree<String>.TreeNode<String> current = queue.remove();
+
+			for (int i=0; i<k; i++)
+			{
+				KTree<String>.TreeNode<String> child = current.children[i];
+
+				if (child == null)
+					moves.add(MISSING);
+				else if (isLeaf(child, k))
+				{
+					if (child.value == null)
+						throw new InvalidTreeException();
+					moves.add(~leaves.size());		// leaf moves are stored as the complement of the leaf index.
+					leaves.add(child.value);
+				}
+				else
+				{
+					moves.add(nextState++);
+					queue.add(child);
+				}
+			}
+			moves.add(MISSING);			// column for characters that are not digits of the code.
+		}
+
+		int[] table = new int[moves.size()];
+		for (int i=0; i<table.length; i++)
+			table[i] = moves.get(i);
+
+		return new CodeTreeDecoder(k, table, leaves.toArray(new String[0]));
+	}
+
+	/**
+	 * Helper method that returns whether or not a node of a code tree is a leaf.
+	 * @param node TreeNode<String> Node being examined.
+	 * @param k int K factor of the tree.
+	 * @return boolean value that represents whether or not the node has no children.
+	 */
+	private static boolean isLeaf(KTree<String>.TreeNode<String> node, int k)
+	{
+		for (int i=0; i<k; i++)
+			if (node.children[i] != null)
+				return false;
+		return true;
+	}
+
+	/**
+	 * This method returns the k factor of the compiled code tree.
+	 * @return int value with the max number of children per node of the tree.
+	 */
+	public int getK()
+	{
+		return kFactor;
+	}
+
+	/**
+	 * Method that returns the fingerprint of the compiled code tree, which identifies the codebook.
+	 * @return String with the SHA-256 hash (in hexadecimal) of the k factor, structure and leaf values of the tree.
+	 */
+	public String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	/**
+	 * Method that returns an estimate of the memory used by the decoder, in bytes: the table of moves, the column of
+	 * each ASCII character and the characters of the leaves (which may be shared with the tree).
+	 * @return long value with the approximate number of bytes used.
+	 */
+	public long memoryFootprint()
+	{
+		long bytes = 4L * moves.length + 4L * columnOf.length + 8L * leaves.length;
+		for (int i=0; i<leaves.length; i++)
+			bytes = bytes + 2L * leaves[i].length();
+		return bytes;
+	}
+
+	/**
+	 * This is a nested interface used by the decoding loops to write the value of every leaf they reach, so there is a
+	 * single loop for each kind of input that works with every kind of output. Writers keep no state (the position of
+	 * the next character or symbol is passed along by the loop), so one instance of each is shared by every decoder.
+	 * Writers of outputs that keep their own position (CharBuffer, StringBuilder, List) use it to count the symbols.
+	 */
+	interface SymbolWriter<T>
+	{
+		/**
+		 * Method that writes the value of a leaf into an output.
+		 * @param out T Output where the value is written.
+		 * @param position int Position of (out) where the value goes, or number of symbols written so far.
+		 * @param symbol String Value of the leaf.
+		 * @return int value with the position after the value, or the number of symbols written with this one.
+		 */
+		int write(T out, int position, String symbol);
+	}
+
+	static final SymbolWriter<char[]> ARRAY_WRITER = (out, position, symbol) ->
+	{
+		if (position < 0 || symbol.length() > out.length - position)
+			throw new IndexOutOfBoundsException("decoded message does not fit in the output array");
+		symbol.getChars(0, symbol.length(), out, position);
+		return position + symbol.length();
+	};
+
+	static final SymbolWriter<CharBuffer> BUFFER_WRITER = (out, position, symbol) ->
+	{
+		out.put(symbol);
+		return position + 1;
+	};
+
+	static final SymbolWriter<StringBuilder> BUILDER_WRITER = (out, position, symbol) ->
+	{
+		out.append(symbol);
+		return position + 1;
+	};
+
+	static final SymbolWriter<String[]> SYMBOL_WRITER = (out, position, symbol) ->
+	{
+		if (position < out.length)		// symbols past the end are only counted.
+			out[position] = symbol;
+		return position + 1;
+	};
+
+	static final SymbolWriter<List<String>> LIST_WRITER = (out, position, symbol) ->
+	{
+		out.add(symbol);
+		return position + 1;
+	};
+
+	static final SymbolWriter<Object> NO_WRITER = (out, position, symbol) -> position + 1;	// only counts the symbols.
+
+	/**
+	 * Method that decodes a coded message with the table of moves. Each digit costs one table lookup, and the
+	 * message is only examined again when a move can not be made, to report why and where it failed.
+	 * @param codedMessage CharSequence Coded message about to be decoded.
+	 * @return String with the decoded message.
+	 * @throws InvalidMessageException if the message has an invalid digit, a digit that leads to a missing child
+	 * or it ends in the middle of a code.
+	 */
+	public String decode(CharSequence codedMessage)
+	{
+		StringBuilder message = new StringBuilder();
+		decodeTo(codedMessage, message);
+		return message.toString();
+	}
+
+	/**
+	 * Method that decodes a coded message received as ASCII bytes. All the bytes are converted into digits and checked
+	 * by DigitParser before decoding, so the decoding loop reads the digits directly as columns of the table.
+	 * @param message byte array with the coded message.
+	 * @param offset int Position of the first byte of the message.
+	 * @param length int Number of bytes of the message.
+	 * @return String with the decoded message.
+	 * @throws InvalidMessageException if the message has an invalid digit, a digit that leads to a missing child
+	 * or it ends in the middle of a code.
+	 */
+	public String decode(byte[] message, int offset, int length)
+	{
+		byte[] digits = new byte[length];
+		DigitParser.parse(message, offset, length, kFactor, digits);
+
+		StringBuilder decoded = new StringBuilder();
+		decodeDigits(digits, 0, length, null, decoded, BUILDER_WRITER, 0);
+		return decoded.toString();
+	}
+
+	/**
+	 * Method that returns an upper bound of the number of characters of a decoded message, so an output buffer can be
+	 * allocated once for every message of up to a given length. The bound is the length of the coded message times the
+	 * highest number of characters per digit of any code of the tree.
+	 * @param codedLength long Number of digits of the coded message.
+	 * @return long value with the max number of characters the message can be decoded into.
+	 */
+	public long maxDecodedLength(long codedLength)
+	{
+		return codedLength / ratioDepth * ratioLength + (codedLength % ratioDepth) * ratioLength / ratioDepth;
+	}
+
+	/**
+	 * Method that decodes a coded message into an array of characters, without allocating any object. If an exception
+	 * is thrown, the array may hold part of the decoded message.
+	 * @param codedMessage CharSequence Coded message about to be decoded.
+	 * @param out char array where the decoded message is stored.
+	 * @param outOffset int Position of (out) where the first character is stored.
+	 * @return int value with the number of characters stored, so the decoded message ends at outOffset plus this value.
+	 * @throws IndexOutOfBoundsException if the decoded message does not fit in the array.
+	 * @throws InvalidMessageException if the message has an invalid digit, a digit that leads to a missing child
+	 * or it ends in the middle of a code.
+	 */
+	public int decodeTo(CharSequence codedMessage, char[] out, int outOffset)
+	{
+		return decodeChars(codedMessage, 0, null, out, ARRAY_WRITER, outOffset) - outOffset;
+	}
+
+	/**
+	 * Method that decodes a coded message into a buffer of characters, starting at its position (which is moved past
+	 * the decoded message), without allocating any object.
+	 * @param codedMessage CharSequence Coded message about to be decoded.
+	 * @param out CharBuffer where the decoded message is stored.
+	 * @return int value with the number of symbols decoded.
+	 * @throws java.nio.BufferOverflowException if the decoded message does not fit in the buffer.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(CharSequence codedMessage, CharBuffer out)
+	{
+		return decodeChars(codedMessage, 0, null, out, BUFFER_WRITER, 0);
+	}
+
+	/**
+	 * Method that decodes a coded message at the end of a StringBuilder, without allocating any object once the
+	 * StringBuilder has enough capacity.
+	 * @param codedMessage CharSequence Coded message about to be decoded.
+	 * @param out StringBuilder where the decoded message is added.
+	 * @return int value with the number of symbols decoded.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(CharSequence codedMessage, StringBuilder out)
+	{
+		return decodeChars(codedMessage, 0, null, out, BUILDER_WRITER, 0);
+	}
+
+	/**
+	 * Method that decodes a coded message taken from a range of an array of characters into an array of characters.
+	 * @param codedMessage char array with the coded message.
+	 * @param offset int Position of the first digit of the message.
+	 * @param length int Number of digits of the message.
+	 * @param out char array where the decoded message is stored.
+	 * @param outOffset int Position of (out) where the first character is stored.
+	 * @return int value with the number of characters stored, so the decoded message ends at outOffset plus this value.
+	 * @throws IndexOutOfBoundsException if the decoded message does not fit in the array.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(char[] codedMessage, int offset, int length, char[] out, int outOffset)
+	{
+		return decodeArray(codedMessage, offset, length, out, ARRAY_WRITER, outOffset) - outOffset;
+	}
+
+	/**
+	 * Method that decodes a coded message taken from a range of an array of characters into a buffer of characters.
+	 * @param codedMessage char array with the coded message.
+	 * @param offset int Position of the first digit of the message.
+	 * @param length int Number of digits of the message.
+	 * @param out CharBuffer where the decoded message is stored, starting at its position.
+	 * @return int value with the number of symbols decoded.
+	 * @throws java.nio.BufferOverflowException if the decoded message does not fit in the buffer.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(char[] codedMessage, int offset, int length, CharBuffer out)
+	{
+		return decodeArray(codedMessage, offset, length, out, BUFFER_WRITER, 0);
+	}
+
+	/**
+	 * Method that decodes a coded message taken from a range of an array of characters at the end of a StringBuilder.
+	 * @param codedMessage char array with the coded message.
+	 * @param offset int Position of the first digit of the message.
+	 * @param length int Number of digits of the message.
+	 * @param out StringBuilder where the decoded message is added.
+	 * @return int value with the number of symbols decoded.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(char[] codedMessage, int offset, int length, StringBuilder out)
+	{
+		return decodeArray(codedMessage, offset, length, out, BUILDER_WRITER, 0);
+	}
+
+	/**
+	 * Method that decodes a coded message received as ASCII bytes into an array of characters. The bytes between the
+	 * position and the limit of the buffer are read, and its position is moved to its limit.
+	 * @param codedMessage ByteBuffer with the coded message.
+	 * @param out char array where the decoded message is stored.
+	 * @param outOffset int Position of (out) where the first character is stored.
+	 * @return int value with the number of characters stored, so the decoded message ends at outOffset plus this value.
+	 * @throws IndexOutOfBoundsException if the decoded message does not fit in the array.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(ByteBuffer codedMessage, char[] out, int outOffset)
+	{
+		return decodeBuffer(codedMessage, out, ARRAY_WRITER, outOffset) - outOffset;
+	}
+
+	/**
+	 * Method that decodes a coded message received as ASCII bytes into a buffer of characters.
+	 * @param codedMessage ByteBuffer with the coded message, which is read completely.
+	 * @param out CharBuffer where the decoded message is stored, starting at its position.
+	 * @return int value with the number of symbols decoded.
+	 * @throws java.nio.BufferOverflowException if the decoded message does not fit in the buffer.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(ByteBuffer codedMessage, CharBuffer out)
+	{
+		return decodeBuffer(codedMessage, out, BUFFER_WRITER, 0);
+	}
+
+	/**
+	 * Method that decodes a coded message received as ASCII bytes at the end of a StringBuilder.
+	 * @param codedMessage ByteBuffer with the coded message, which is read completely.
+	 * @param out StringBuilder where the decoded message is added.
+	 * @return int value with the number of symbols decoded.
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	public int decodeTo(ByteBuffer codedMessage, StringBuilder out)
+	{
+		return decodeBuffer(codedMessage, out, BUILDER_WRITER, 0);
+	}
+
+	/**
+	 * Helper method that decodes a coded message given as a CharSequence, or a chunk of one. Every decoding of
+	 * characters (decode(), decodeTo() and DecodeProcessor) goes through this loop.
+	 * @param codedMessage CharSequence Coded message, or the next chunk of it.
+	 * @param base int Position of the first character in the whole message (used to report errors).
+	 * @param state int array with the state of the decoder before the first character, where the state after the last
+	 * one is stored (null to decode a whole message, which starts at the root and can not end in the middle of a code).
+	 * @param out T Output where the symbols are written.
+	 * @param writer SymbolWriter<T> used to write into (out).
+	 * @param position int Position of (out) where the first symbol is written.
+	 * @return int value with the position of (out) after the last symbol (see SymbolWriter).
+	 * @throws InvalidMessageException if a character is not a digit, it leads to a missing child or a whole message
+	 * ends in the middle of a code.
+	 */
+	<T> int decodeChars(CharSequence codedMessage, int base, int[] state, T out, SymbolWriter<T> writer, int position)
+	{
+		int current = (state == null) ? 0 : state[0];
+		int length = codedMessage.length();
+
+		for (int i=0; i<length; i++)
+		{
+			char c = codedMessage.charAt(i);
+			int next = moves[current * width + (c < 128 ? columnOf[c] : column(c))];
+
+			if (next >= 0)				// moved to another internal node.
+				current = next;
+			else if (next != MISSING)	// reached a leaf, write its value and go back to the root.
+			{
+				position = writer.write(out, position, leaves[~next]);
+				current = 0;
+			}
+			else
+				throw invalidMove(c, base + i);
+		}
+
+		return finish(current, state, base + length, position);
+	}
+
+	/**
+	 * Helper method that decodes a whole coded message given as a range of a char array.
+	 * @param codedMessage char array with the coded message.
+	 * @param offset int Position of the first digit.
+	 * @param length int Number of digits.
+	 * @param out T Output where the symbols are written.
+	 * @param writer SymbolWriter<T> used to write into (out).
+	 * @param position int Position of (out) where the first symbol is written.
+	 * @return int value with the position of (out) after the last symbol (see SymbolWriter).
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	private <T> int decodeArray(char[] codedMessage, int offset, int length, T out, SymbolWriter<T> writer, int position)
+	{
+		if (offset < 0 || length < 0 || length > codedMessage.length - offset)
+			throw new IndexOutOfBoundsException("invalid range of the coded message");
+
+		int current = 0;
+
+		for (int i=0; i<length; i++)
+		{
+			char c = codedMessage[offset + i];
+			int next = moves[current * width + (c < 128 ? columnOf[c] : column(c))];
+
+			if (next >= 0)				// moved to another internal node.
+				current = next;
+			else if (next != MISSING)	// reached a leaf, write its value and go back to the root.
+			{
+				position = writer.write(out, position, leaves[~next]);
+				current = 0;
+			}
+			else
+				throw invalidMove(c, i);
+		}
+
+		return finish(current, null, length, position);
+	}
+
+	/**
+	 * Helper method that decodes a whole coded message given as ASCII bytes between the position and the limit of a
+	 * buffer. The position of the buffer is moved to its limit once the message is decoded.
+	 * @param codedMessage ByteBuffer with the coded message.
+	 * @param out T Output where the symbols are written.
+	 * @param writer SymbolWriter<T> used to write into (out).
+	 * @param position int Position of (out) where the first symbol is written.
+	 * @return int value with the position of (out) after the last symbol (see SymbolWriter).
+	 * @throws InvalidMessageException if the message can not be decoded (see decodeTo(CharSequence, char[], int)).
+	 */
+	private <T> int decodeBuffer(ByteBuffer codedMessage, T out, SymbolWriter<T> writer, int position)
+	{
+		int current = 0;
+		int start = codedMessage.position();
+		int length = codedMessage.remaining();
+
+		for (int i=0; i<length; i++)
+		{
+			int b = codedMessage.get(start + i) & 0xFF;
+			int next = moves[current * width + (b < 128 ? columnOf[b] : kFactor)];
+
+			if (next >= 0)				// moved to another internal node.
+				current = next;
+			else if (next != MISSING)	// reached a leaf, write its value and go back to the root.
+			{
+				position = writer.write(out, position, leaves[~next]);
+				current = 0;
+			}
+			else
+				throw invalidMove((char)b, i);
+		}
+
+		position = finish(current, null, length, position);
+		codedMessage.position(start + length);
+		return position;
+	}
+
+	/**
+	 * Method that decodes a coded message stored as raw bytes, for code trees with k = 16 (two digits per byte, the
+	 * high nibble first) or k = 256 (one digit per byte). Every nibble or byte is a valid digit, so each digit costs
+	 * a single table lookup.
+	 * @param message byte array with the coded message.
+	 * @param offset int Position of the first byte of the message.
+	 * @param digitCount int Number of digits of the message (with k = 16, the low nibble of the last byte is ignored
+	 * when the number is odd).
+	 * @return String with the decoded message.
+	 * @throws InvalidKException if the k factor of the code tree is not 16 or 256.
+	 * @throws InvalidMessageException if a digit leads to a missing child or the message ends in the middle of a code.
+	 */
+	public String decodeBytes(byte[] message, int offset, int digitCount)
+	{
+		int bytes = bytesFor(digitCount);
+		if (offset < 0 || bytes > message.length - offset)
+			throw new IndexOutOfBoundsException("message has fewer than " + bytes + " bytes");
+
+		StringBuilder decoded = new StringBuilder();
+		decodeBytes(message, offset, digitCount, 0, null, decoded, BUILDER_WRITER);
+		return decoded.toString();
+	}
+
+	/**
+	 * Method that decodes all the bytes left in a buffer as a coded message (see decodeBytes(byte[], int, int)).
+	 * @param input ByteBuffer with the coded message between its position and its limit, which is read completely.
+	 * @return String with the decoded message.
+	 * @throws InvalidKException if the k factor of the code tree is not 16 or 256.
+	 * @throws InvalidMessageException if a digit leads to a missing child or the message ends in the middle of a code.
+	 */
+	public String decodeBytes(ByteBuffer input)
+	{
+		long digits = (long)input.remaining() * (kFactor == 16 ? 2 : 1);
+		if (digits > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("message is too long");
+		return decodeBytes(input, (int)digits);
+	}
+
+	/**
+	 * Method that decodes a coded message stored as raw bytes in a buffer (see decodeBytes(byte[], int, int)). The
+	 * bytes are read from the position of the buffer, which is moved past the message. Buffers without an accessible
+	 * array (like direct buffers) are copied in small chunks, keeping the state of the decoder from one to the next.
+	 * @param input ByteBuffer with the coded message at its position.
+	 * @param digitCount int Number of digits of the message.
+	 * @return String with the decoded message.
+	 * @throws InvalidKException if the k factor of the code tree is not 16 or 256.
+	 * @throws BufferUnderflowException if the buffer does not have enough bytes left.
+	 * @throws InvalidMessageException if a digit leads to a missing child or the message ends in the middle of a code.
+	 */
+	public String decodeBytes(ByteBuffer input, int digitCount)
+	{
+		int bytes = bytesFor(digitCount);
+		if (bytes > input.remaining())
+			throw new BufferUnderflowException();
+
+		StringBuilder decoded = new StringBuilder();
+
+		if (input.hasArray())
+		{
+			decodeBytes(input.array(), input.arrayOffset() + input.position(), digitCount, 0, null, decoded,
+					BUILDER_WRITER);
+			input.position(input.position() + bytes);
+		}
+		else
+		{
+			byte[] chunk = new byte[Math.min(bytes, 8192)];
+			int perByte = (kFactor == 16) ? 2 : 1;
+			int[] state = new int[1];	// state of the decoder between chunks.
+			int done = 0;				// digits decoded so far.
+
+			while (done < digitCount)
+			{
+				int n = Math.min(chunk.length, bytes - done / perByte);
+				input.get(chunk, 0, n);
+				int digits = Math.min(n * perByte, digitCount - done);
+				decodeBytes(chunk, 0, digits, done, state, decoded, BUILDER_WRITER);
+				done = done + digits;
+			}
+			finish(state[0], null, digitCount, 0);
+		}
+
+		return decoded.toString();
+	}
+
+	/**
+	 * Helper method that returns the number of bytes used by the digits of a message stored as raw bytes.
+	 * @param digitCount int Number of digits of the message.
+	 * @return int value with the number of bytes.
+	 * @throws InvalidKException if the k factor of the code tree is not 16 or 256.
+	 */
+	private int bytesFor(int digitCount)
+	{
+		if (kFactor != 16 && kFactor != 256)		// only these k factors use whole nibbles or bytes as digits.
+			throw new InvalidKException();
+		if (digitCount < 0)
+			throw new IllegalArgumentException("negative number of digits");
+		return (kFactor == 16) ? (digitCount + 1) / 2 : digitCount;
+	}
+
+	/**
+	 * Helper method that decodes a message stored as raw bytes, or part of one.
+	 * @param bytes byte array with the digits.
+	 * @param offset int Position of the first byte.
+	 * @param digitCount int Number of digits to decode.
+	 * @param base int Position of the first digit in the whole message (used to report errors).
+	 * @param state int array with the state of the decoder before the first digit, where the state after the last one
+	 * is stored (null to decode a whole message).
+	 * @param out T Output where the symbols are written.
+	 * @param writer SymbolWriter<T> used to write into (out).
+	 * @return int value with the position of (out) after the last symbol, starting at 0 (see SymbolWriter).
+	 * @throws InvalidMessageException if a digit leads to a missing child or a whole message ends in the middle of a
+	 * code.
+	 */
+	private <T> int decodeBytes(byte[] bytes, int offset, int digitCount, int base, int[] state, T out,
+			SymbolWriter<T> writer)
+	{
+		int current = (state == null) ? 0 : state[0];
+		int position = 0;
+
+		for (int i=0; i<digitCount; i++)
+		{
+			int digit;
+			if (kFactor == 256)			// one digit per byte.
+				digit = bytes[offset + i] & 0xFF;
+			else if ((i & 1) == 0)		// two digits per byte, the high nibble first.
+				digit = (bytes[offset + (i >> 1)] >> 4) & 0xF;
+			else
+				digit = bytes[offset + (i >> 1)] & 0xF;
+
+			int next = moves[current * width + digit];
+
+			if (next >= 0)				// moved to another internal node.
+				current = next;
+			else if (next != MISSING)	// reached a leaf, write its value and go back to the root.
+			{
+				position = writer.write(out, position, leaves[~next]);
+				current = 0;
+			}
+			else
+				throw new InvalidMessageException(base + i, "digit leads to a missing node");
+		}
+
+		return finish(current, state, base + digitCount, position);
+	}
+
+	/**
+	 * Method that decodes digits that were already converted and checked (by DigitParser, or unpacked from a container),
+	 * storing every symbol decoded in an array. Symbols that do not fit in the array are counted but not stored, so the
+	 * caller can compare the position returned with the number of symbols it expected.
+	 * @param digits byte array with the digits of the coded message.
+	 * @param length int Number of digits to decode.
+	 * @param symbols String array where the symbols are stored.
+	 * @param position int Position of (symbols) where the first symbol is stored.
+	 * @return int value with the position after the last symbol decoded (past the end of the array if some did not fit).
+	 * @throws InvalidMessageException if a digit leads to a missing child or the digits end in the middle of a code.
+	 */
+	int decodeDigits(byte[] digits, int length, String[] symbols, int position)
+	{
+		return decodeDigits(digits, 0, length, null, symbols, SYMBOL_WRITER, position);
+	}
+
+	/**
+	 * Helper method that decodes a range of digits that were already converted and checked, which may be a whole
+	 * message or part of one.
+	 * @param digits byte array with the digits of the coded message.
+	 * @param from int Position of the first digit to decode.
+	 * @param to int Position after the last digit to decode.
+	 * @param state int array with the state of the decoder before the first digit, where the state after the last one
+	 * is stored (null to decode a whole message).
+	 * @param out T Output where the symbols are written.
+	 * @param writer SymbolWriter<T> used to write into (out).
+	 * @param position int Position of (out) where the first symbol is written.
+	 * @return int value with the position of (out) after the last symbol (see SymbolWriter).
+	 * @throws InvalidMessageException if a digit leads to a missing child or a whole message ends in the middle of a
+	 * code.
+	 */
+	<T> int decodeDigits(byte[] digits, int from, int to, int[] state, T out, SymbolWriter<T> writer, int position)
+	{
+		int current = (state == null) ? 0 : state[0];
+
+		for (int i=from; i<to; i++)
+		{
+			int next = moves[current * width + digits[i]];
+
+			if (next >= 0)				// moved to another internal node.
+				current = next;
+			else if (next != MISSING)	// reached a leaf, write its value and go back to the root.
+			{
+				position = writer.write(out, position, leaves[~next]);
+				current = 0;
+			}
+			else
+				throw new InvalidMessageException(i, "digit leads to a missing node");
+		}
+
+		return finish(current, state, to, position);
+	}
+
+	/**
+	 * Helper method used at the end of every decoding loop: the state reached is stored for the next part of the
+	 * message, or it is checked to be the root when the whole message was decoded.
+	 * @param current int State of the decoder after the last digit.
+	 * @param state int array where the state is stored (null if the whole message was decoded).
+	 * @param end int Position after the last digit (used to report errors).
+	 * @param position int Position of the output after the last symbol written.
+	 * @return int value with the position of the output after the last symbol written.
+	 * @throws InvalidMessageException if the whole message was decoded and it ended in the middle of a code.
+	 */
+	private static int finish(int current, int[] state, int end, int position)
+	{
+		if (state != null)
+			state[0] = current;
+		else if (current != 0)
+			throw new InvalidMessageException(end, "message ended in the middle of a code");
+		return position;
+	}
+
+	/**
+	 * Helper method that builds the exception for a move that could not be made. It is kept out of the decoding
+	 * loop since it should rarely be called.
+	 * @param c char Character of the coded message that could not be used.
+	 * @param position int Index of the character in the coded message.
+	 * @return InvalidMessageException describing the problem.
+	 */
+	InvalidMessageException invalidMove(char c, int position)
+	{
+		if (column(c) == kFactor)
+			return new InvalidMessageException(position, "invalid digit '" + c + "'");
+		return new InvalidMessageException(position, "digit leads to a missing node");
+	}
+}
@@ -0,0 +1,277 @@
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class reads coded messages written by CodedMessageWriter. The header is read when the reader is created, so
+ * the k factor and the number of symbols and digits of the message are known before decoding anything, and the
+ * output can be allocated with its exact size. The blocks of the message are then decoded (or skipped without
+ * decoding them) one at a time, in the order they were written.
+ *
+ * The code tree is either embedded in the container, in which case it is compiled (and added to the registry, if
+ * there is one), or identified by its fingerprint, in which case its decoder is looked up in the registry.
+ *
+ * @author Sergio Delgado
+ */
+public class CodedMessageReader
+{
+	static final int INITIAL_DIGITS = 1 << 16;	// digits allocated for a block before its words are read.
+
+	final DataInput in;					// where the container is read from.
+	final CodeTreeDecoder decoder;		// compiled code tree of the message.
+	final long symbolCount;				// number of symbols of the message.
+	final long digitCount;				// number of digits of the message.
+	final int blockCount;				// number of blocks of the message.
+	final int digitsPerWord;			// number of digits packed in each long value.
+	int blocksRead;						// number of blocks already decoded or skipped.
+	long symbolsRead;					// number of symbols in the blocks already decoded or skipped.
+	long digitsRead;					// number of digits in the blocks already decoded or skipped.
+
+	/**
+	 * Constructor that reads the header of a container and finds the decoder of its code tree.
+	 * @param in DataInput with the container.
+	 * @param registry DecoderRegistry where code trees are looked up by fingerprint (may be null if the tree is
+	 * embedded in the container).
+	 * @throws IOException if the header can not be read, it is not valid or the code tree is not in the registry.
+	 */
+	public CodedMessageReader(DataInput in, DecoderRegistry registry) throws IOException
+	{
+		this.in = in;
+
+		if (in.readInt() != CodedMessageWriter.MAGIC)
+			throw new IOException("not a coded message container");
+		int version = in.readByte();
+		if (version != CodedMessageWriter.VERSION)
+			throw new IOException("unsupported container version " + version);
+
+		int k = in.readInt();
+		if (k < 2 || k > Byte.MAX_VALUE)		// digits are unpacked into bytes.
+			throw new IOException("invalid k factor " + k);
+		int source = in.readByte();
+		if (source == CodedMessageWriter.EMBEDDED_TREE)
+		{
+			KTree<String> tree = KTree.read(in);
+			decoder = (registry != null) ? registry.register(tree) : CodeTreeDecoder.compile(tree);
+		}
+		else if (source == CodedMessageWriter.CODEBOOK_ID)
+		{
+			String fingerprint = in.readUTF();
+			decoder = (registry != null) ? registry.get(fingerprint) : null;
+			if (decoder == null)
+				throw new IOException("unknown codebook " + fingerprint);
+		}
+		else
+			throw new IOException("invalid code tree source " + source);
+
+		if (decoder.getK() != k)
+			throw new IOException("k factor of the code tree does not match the header");
+
+		symbolCount = in.readLong();
+		digitCount = in.readLong();
+		blockCount = in.readInt();
+		if (symbolCount < 0 || digitCount < symbolCount || blockCount < 0)
+			throw new IOException("invalid container header");
+
+		digitsPerWord = CodedMessageWriter.digitsPerWord(k);
+	}
+
+	/**
+	 * This method returns the k factor of the code tree of the message.
+	 * @return int value with the max number of children per node of the tree.
+	 */
+	public int getK()
+	{
+		return decoder.getK();
+	}
+
+	/**
+	 * Method that returns the decoder of the code tree of the message.
+	 * @return CodeTreeDecoder used to decode the blocks.
+	 */
+	public CodeTreeDecoder getDecoder()
+	{
+		return decoder;
+	}
+
+	/**
+	 * Method that returns the number of symbols of the whole message.
+	 * @return long value with the number of symbols.
+	 */
+	public long getSymbolCount()
+	{
+		return symbolCount;
+	}
+
+	/**
+	 * Method that returns the number of digits of the whole coded message.
+	 * @return long value with the number of digits.
+	 */
+	public long getDigitCount()
+	{
+		return digitCount;
+	}
+
+	/**
+	 * Method that returns whether or not there are blocks left to read.
+	 * @return boolean value that represents whether or not nextBlock() or skipBlock() can be called.
+	 */
+	public boolean hasNextBlock()
+	{
+		return blocksRead < blockCount;
+	}
+
+	/**
+	 * Method that decodes the next block of the message.
+	 * @return String array with the symbols of the block.
+	 * @throws IOException if the block can not be read or it is not valid.
+	 */
+	public String[] nextBlock() throws IOException
+	{
+		int[] counts = readBlockCounts();
+		String[] symbols = new String[counts[0]];
+		readBlock(counts, symbols, 0);
+		return symbols;
+	}
+
+	/**
+	 * Method that skips the next block of the message without decoding it.
+	 * @return int value with the number of symbols skipped.
+	 * @throws IOException if the block can not be skipped.
+	 */
+	public int skipBlock() throws IOException
+	{
+		int[] counts = readBlockCounts();
+		long bytes = 8L * words(counts[1]);
+		while (bytes > 0)		// skipBytes() may skip fewer bytes than asked.
+		{
+			int skipped = in.skipBytes((int)Math.min(bytes, Integer.MAX_VALUE));
+			if (skipped <= 0)
+			{
+				in.readByte();		// throws EOFException at the end of the input.
+				skipped = 1;
+			}
+			bytes = bytes - skipped;
+		}
+		symbolsRead = symbolsRead + counts[0];
+		return counts[0];
+	}
+
+	/**
+	 * Method that decodes all the blocks left, in an array allocated with the exact number of symbols left.
+	 * @return String array with the symbols of the blocks left.
+	 * @throws IOException if a block can not be read, it is not valid or the message has too many symbols for an array.
+	 */
+	public String[] readSymbols() throws IOException
+	{
+		long left = symbolCount - symbolsRead;
+		if (left > Integer.MAX_VALUE - 8)
+			throw new IOException("message has too many symbols for an array");
+
+		String[] symbols = new String[(int)left];
+		int position = 0;
+		while (hasNextBlock())
+		{
+			int[] counts = readBlockCounts();
+			if (counts[0] > symbols.length - position)
+				throw new IOException("blocks have more symbols than the header");
+			position = readBlock(counts, symbols, position);
+		}
+
+		if (position != symbols.length)
+			throw new IOException("blocks have fewer symbols than the header");
+		return symbols;
+	}
+
+	/**
+	 * Method that decodes all the blocks left into a single String, the same value KTree.decode() returns for the
+	 * coded message.
+	 * @return String with the decoded message.
+	 * @throws IOException if a block can not be read or it is not valid.
+	 */
+	public String readMessage() throws IOException
+	{
+		StringBuilder message = new StringBuilder();
+		for (String symbol : readSymbols())
+			message.append(symbol);
+		return message.toString();
+	}
+
+	/**
+	 * Helper method that reads the number of symbols and digits at the beginning of a block.
+	 * @return int array with the number of symbols (position 0) and digits (position 1) of the block.
+	 * @throws IOException if there are no blocks left, the counts can not be read or the block has more digits than
+	 * the header says are left.
+	 */
+	private int[] readBlockCounts() throws IOException
+	{
+		if (!hasNextBlock())
+			throw new IOException("no blocks left");
+
+		int symbols = in.readInt();
+		int digits = in.readInt();
+		if (symbols < 0 || digits < symbols || digits > digitCount - digitsRead)
+			throw new IOException("invalid block header");
+
+		blocksRead++;
+		digitsRead = digitsRead + digits;
+		return new int[] { symbols, digits };
+	}
+
+	/**
+	 * Helper method that unpacks the digits of a block and decodes them. The array of digits grows as the words are
+	 * read, so a corrupted block header does not allocate more than the input really holds.
+	 * @param counts int array with the number of symbols and digits of the block.
+	 * @param symbols String array where the symbols are stored.
+	 * @param position int Position of (symbols) where the first symbol is stored.
+	 * @return int value with the position after the last symbol stored.
+	 * @throws IOException if the digits can not be read or they do not decode into the number of symbols expected.
+	 */
+	private int readBlock(int[] counts, String[] symbols, int position) throws IOException
+	{
+		int k = decoder.getK();
+		int length = counts[1];
+		byte[] digits = new byte[Math.min(length, INITIAL_DIGITS)];
+
+		for (int w=0; w<length; w+=digitsPerWord)
+		{
+			long word = in.readLong();
+			if (word < 0)
+				throw new IOException("invalid packed digits");
+			int end = Math.min(w + digitsPerWord, length);
+			if (end > digits.length)
+				digits = Arrays.copyOf(digits, (int)Math.min(length, 2L * digits.length + digitsPerWord));
+			for (int i=w; i<end; i++)		// the first digit is the least significant.
+			{
+				digits[i] = (byte)(word % k);
+				word = word / k;
+			}
+			if (word != 0)					// a word with more digits than expected.
+				throw new IOException("invalid packed digits");
+		}
+
+		int end;
+		try
+		{
+			end = decoder.decodeDigits(digits, length, symbols, position);
+		}
+		catch (InvalidMessageException e)
+		{
+			throw new IOException("invalid block: " + e.getMessage(), e);
+		}
+		if (end - position != counts[0])
+			throw new IOException("block does not have the number of symbols of its header");
+
+		symbolsRead = symbolsRead + counts[0];
+		return end;
+	}
+
+	/**
+	 * Helper method that returns the number of long values used to pack a number of digits.
+	 * @param digits int Number of digits.
+	 * @return int value with the number of long values.
+	 */
+	private int words(int digits)
+	{
+		return (digits + digitsPerWord - 1) / digitsPerWord;
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class writes coded messages in a self-describing container, so the receiver knows the k factor and the code
+ * tree of the message, and how many symbols and digits to expect, before decoding anything.
+ *
+ * A container has a header with:
+ *   - the MAGIC number and the VERSION of the format,
+ *   - the k factor of the code tree,
+ *   - either the fingerprint of the code tree (CODEBOOK_ID, to look it up in a DecoderRegistry) or the whole tree
+ *     (EMBEDDED_TREE, written by KTree.write()),
+ *   - the number of symbols, digits and blocks of the message.
+ * Then come the blocks of the message. Each block holds whole codes only, so it can be decoded on its own, and it
+ * starts with its number of symbols and digits followed by its digits packed in base k: as many digits as fit in a
+ * long value are stored in each long (the first digit is the least significant). The size of a block is known from
+ * its number of digits, so a reader can skip it without decoding it.
+ *
+ * @author Sergio Delgado
+ */
+public class CodedMessageWriter
+{
+	static final int MAGIC = 0x4B544D43;		// "KTMC", first four bytes of every container.
+	static final byte VERSION = 1;				// version of the format.
+	static final byte CODEBOOK_ID = 0;			// the header holds the fingerprint of the code tree.
+	static final byte EMBEDDED_TREE = 1;		// the header holds the whole code tree.
+	static final int DEFAULT_BLOCK_DIGITS = 4096;	// approximate number of digits per block.
+
+	final DataOutput out;				// where the containers are written.
+	final KTree<String> tree;			// code tree of the messages.
+	final CodeTreeDecoder decoder;		// compiled code tree, used to find where the codes of the message end.
+	final boolean embedTree;			// whether or not the tree is written in the header.
+	final int blockDigits;				// min number of digits of a block (except for the last one).
+
+	/**
+	 * Constructor that initializes the writer for messages coded with a code tree.
+	 * @param out DataOutput where the containers are written.
+	 * @param tree KTree<String> Code tree of the messages.
+	 * @param embedTree boolean Whether the whole tree (true) or only its fingerprint (false) goes in the header.
+	 * @param blockDigits int Approximate number of digits per block.
+	 */
+	public CodedMessageWriter(DataOutput out, KTree<String> tree, boolean embedTree, int blockDigits)
+	{
+		if (blockDigits < 1)
+			throw new IllegalArgumentException("blocks must have at least one digit");
+
+		this.out = out;
+		this.tree = tree;
+		this.decoder = CodeTreeDecoder.compile(tree);
+		this.embedTree = embedTree;
+		this.blockDigits = blockDigits;
+	}
+
+	/**
+	 * Method that returns how many digits of a code with k factor (k) are packed in each long value.
+	 * @param k int K factor of the code.
+	 * @return int value with the number of digits per long.
+	 */
+	static int digitsPerWord(int k)
+	{
+		int digits = 0;
+		long capacity = 1;
+		while (capacity <= Long.MAX_VALUE / k)		// k to the power (digits) still fits in a long.
+		{
+			capacity = capacity * k;
+			digits++;
+		}
+		return digits;
+	}
+
+	/**
+	 * Method that writes a coded message as a container. The message is checked against the code tree while looking
+	 * for the ends of its codes, which is where blocks are cut.
+	 * @param codedMessage String Coded message (same digits used by KTree.decode()).
+	 * @throws IOException if the container can not be written.
+	 * @throws InvalidMessageException if the message can not be decoded with the code tree.
+	 */
+	public void write(String codedMessage) throws IOException
+	{
+		int k = decoder.kFactor;
+		int length = codedMessage.length();
+		byte[] digits = new byte[length];
+		DigitParser.parse(codedMessage, k, digits);
+
+		int[] blockEnds = new int[16];		// position after the last digit of each block.
+		int[] blockSymbols = new int[16];	// number of symbols of each block.
+		int blocks = 0;
+		long symbols = 0;
+		int blockStart = 0;
+		int[] state = new int[1];			// state of the decoder at the end of the digits decoded so far.
+
+		while (blockStart < length)			// decoding (blockDigits) digits, then up to the end of the code they end in.
+		{
+			int end = Math.min(blockStart + blockDigits, length);
+			int symbolsInBlock = decoder.decodeDigits(digits, blockStart, end, state, null, CodeTreeDecoder.NO_WRITER, 0);
+			while (state[0] != 0 && end < length)
+			{
+				symbolsInBlock = symbolsInBlock + decoder.decodeDigits(digits, end, end + 1, state, null,
+						CodeTreeDecoder.NO_WRITER, 0);
+				end++;
+			}
+			if (state[0] != 0)
+				throw new InvalidMessageException(length, "message ended in the middle of a code");
+
+			if (blocks == blockEnds.length)
+			{
+				blockEnds = Arrays.copyOf(blockEnds, blocks * 2);
+				blockSymbols = Arrays.copyOf(blockSymbols, blocks * 2);
+			}
+			blockEnds[blocks] = end;
+			blockSymbols[blocks++] = symbolsInBlock;
+			symbols = symbols + symbolsInBlock;
+			blockStart = end;
+		}
+
+		out.writeInt(MAGIC);				// header of the container.
+		out.writeByte(VERSION);
+		out.writeInt(k);
+		if (embedTree)
+		{
+			out.writeByte(EMBEDDED_TREE);
+			KTree.write(tree, out);
+		}
+		else
+		{
+			out.writeByte(CODEBOOK_ID);
+			out.writeUTF(decoder.getFingerprint());
+		}
+		out.writeLong(symbols);
+		out.writeLong(length);
+		out.writeInt(blocks);
+
+		int perWord = digitsPerWord(k);
+		blockStart = 0;
+		for (int b=0; b<blocks; b++)		// blocks of the message, with their digits packed in base k.
+		{
+			out.writeInt(blockSymbols[b]);
+			out.writeInt(blockEnds[b] - blockStart);
+
+			for (int w=blockStart; w<blockEnds[b]; w+=perWord)
+			{
+				long word = 0;
+				for (int i=Math.min(w + perWord, blockEnds[b]) - 1; i>=w; i--)	// first digit is the least significant.
+					word = word * k + digits[i];
+				out.writeLong(word);
+			}
+			blockStart = blockEnds[b];
+		}
+	}
+}
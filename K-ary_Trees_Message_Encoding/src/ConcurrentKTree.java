@@ -0,0 +1,465 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a K-ary tree that many threads can read and change at the same time. It has the same positions and
+ * set() rules as KTree, but elements are added and deleted in place instead of rebuilding the tree, so threads that
+ * change different subtrees do not wait for each other.
+ *
+ * Every node keeps its children in an atomic array and its value in a volatile field, so readers never lock and they
+ * only see nodes that are completely built. Writers lock only the nodes they change: adding a leaf locks its parent,
+ * and deleting a leaf locks its parent and then the leaf (always from the top down, so writers can not deadlock). A
+ * deleted node is marked, so a leaf can not be added under a node that was just deleted. The size and the number of
+ * nodes at each level (used for the height) are kept in LongAdder counters, so writers do not share a single field.
+ *
+ * Traversals are weakly consistent: they never fail because of concurrent changes, and they see some of the changes
+ * made while traversing.
+ *
+ * @author Sergio Delgado
+ *
+ * @param <E> Generic type that will be used to define the type of value the tree nodes will hold.
+ */
+public class ConcurrentKTree<E> implements TreeIterable<E>
+{
+	static final int MAX_LEVELS = 32;		// positions are int values, so no node can be deeper than level 31.
+
+	/**
+	 * This is a nested class that will provide the definition of the tree nodes.
+	 *
+	 * @param <E> Generic type of the value the node holds.
+	 */
+	static class Node<E>
+	{
+		volatile E value;								// data stored in the node.
+		final AtomicReferenceArray<Node<E>> children;	// references to the children nodes of this node.
+		volatile boolean deleted;						// whether or not the node was deleted from the tree.
+
+		/**
+		 * Constructor that initializes the value of the node and its (empty) children.
+		 */
+		Node(E v, int k)
+		{
+			value = v;
+			children = new AtomicReferenceArray<Node<E>>(k);
+		}
+	}
+
+	final int kFactor;					// k factor of the tree (max number of children per node).
+	final Object rootLock;				// lock used to add or delete the root.
+	volatile Node<E> root;				// Reference to the root node of the tree.
+	final LongAdder size;				// number of elements of the tree.
+	final LongAdder[] levelCounts;		// number of nodes at each level of the tree (index 0 is the level of the root).
+
+	/**
+	 * Constructor that builds the tree from its array representation, like KTree(arrayTree, k).
+	 * @param arrayTree Generic array with the array representation of the tree.
+	 * @param k int K factor of the tree.
+	 * @throws InvalidTreeException if an element of the array has no parent.
+	 */
+	public ConcurrentKTree(E[] arrayTree, int k)
+	{
+		if (k < 2)
+			throw new InvalidKException();
+
+		kFactor = k;
+		rootLock = new Object();
+		size = new LongAdder();
+		levelCounts = new LongAdder[MAX_LEVELS];
+		for (int d=0; d<MAX_LEVELS; d++)
+			levelCounts[d] = new LongAdder();
+
+		for (int i=0; i<arrayTree.length; i++)		// parents always come before their children in the array.
+			if (arrayTree[i] != null)
+				set(i, arrayTree[i]);
+	}
+
+	/**
+	 * This method returns the k factor of the tree.
+	 * @return int value with the max number of children per node of the tree.
+	 */
+	public int getK()
+	{
+		return kFactor;
+	}
+
+	/**
+	 * This method returns the number of elements of the tree.
+	 * @return int value with the size of the tree.
+	 */
+	public int size()
+	{
+		return (int)size.sum();
+	}
+
+	/**
+	 * This method returns the height of the tree, the deepest level that has nodes.
+	 * @return int value with the height of the tree (0 if the tree is empty).
+	 */
+	public int height()
+	{
+		for (int d=MAX_LEVELS-1; d>0; d--)
+			if (levelCounts[d].sum() > 0)
+				return d;
+		return 0;
+	}
+
+	/**
+	 * Method that returns the data of the node located in the index (i) in the tree. It never locks.
+	 * @param i int Represents the index of a node in the tree.
+	 * @return E value with the data of the node of the tree at index (i), or null if there is no such node.
+	 */
+	public E get(int i)
+	{
+		Node<E> target = nodeAt(i);
+		return (target == null) ? null : target.value;
+	}
+
+	/**
+	 * Helper method that returns the child numbers that lead from the root of the tree to the position (index).
+	 * @param index int value that represents the position of a node in the tree (not negative).
+	 * @return int array with one child number per level, from the root down to the position (index).
+	 */
+	private int[] pathOf(int index)
+	{
+		int depth = 0;
+		for (int j=index; j>0; j=(j-1)/kFactor)		// counting the digits of the path to the node.
+			depth++;
+
+		int[] path = new int[depth];
+		int p = depth - 1;
+		for (int j=index; j>0; j=(j-1)/kFactor)		// obtaining the digits from the bottom of the path to the top.
+			path[p--] = (j-1) % kFactor;
+
+		return path;
+	}
+
+	/**
+	 * Helper method that returns the node at a position, by following its path from the root.
+	 * @param index int value that represents the position of a node in the tree.
+	 * @return Node at the position (index), or null if there is no such node.
+	 */
+	private Node<E> nodeAt(int index)
+	{
+		if (index < 0)
+			return null;
+
+		int[] path = pathOf(index);
+		Node<E> current = root;
+		for (int d=0; d<path.length && current != null; d++)
+			current = current.children.get(path[d]);
+		return current;
+	}
+
+	/**
+	 * Method that sets a value v into the node located at index (i), with the same rules as KTree.set(): an existing
+	 * node gets the new value, a missing node is added as a leaf if its parent exists, and a null value deletes the
+	 * node if it is a leaf. Only the nodes being changed are locked.
+	 * @param i int Index of the node in the tree.
+	 * @param v Generic type value to set into the tree node (null to delete it).
+	 * @return boolean value that represents whether or not the setting of a value into a tree node was successful.
+	 * @throws InvalidTreeException if the node has to be added and its parent does not exist.
+	 */
+	public boolean set(int i, E v)
+	{
+		if (i < 0)
+			return false;
+		if (i == 0)
+			return setRoot(v);
+
+		int[] path = pathOf(i);
+		int slot = path[path.length - 1];
+
+		while (true)		// tried again if the parent is deleted while the change is made.
+		{
+			Node<E> parent = root;
+			for (int d=0; d<path.length-1 && parent != null; d++)
+				parent = parent.children.get(path[d]);
+
+			if (parent == null)
+			{
+				if (v == null)			// nothing to delete.
+					return false;
+				throw new InvalidTreeException();
+			}
+
+			Node<E> target = parent.children.get(slot);
+			if (target != null && v != null)		// changing the value of an existing node does not lock.
+			{
+				target.value = v;
+				if (!target.deleted)
+					return true;
+				continue;
+			}
+
+			synchronized (parent)
+			{
+				if (parent.deleted)		// the path changed, it is followed again.
+					continue;
+
+				target = parent.children.get(slot);
+				if (v != null)
+				{
+					if (target == null)		// adding a leaf.
+					{
+						parent.children.set(slot, new Node<E>(v, kFactor));
+						size.increment();
+						levelCounts[path.length].increment();
+					}
+					else
+						target.value = v;
+					return true;
+				}
+
+				if (target == null)
+					return false;
+				synchronized (target)		// deleting a leaf.
+				{
+					if (hasChildren(target))
+						return false;
+					target.deleted = true;
+					parent.children.set(slot, null);
+					size.decrement();
+					levelCounts[path.length].decrement();
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method that sets the value of the root, adding or deleting it if needed.
+	 * @param v Generic type value to set into the root (null to delete it).
+	 * @return boolean value that represents whether or not the setting was successful.
+	 */
+	private boolean setRoot(E v)
+	{
+		synchronized (rootLock)
+		{
+			Node<E> current = root;
+			if (v != null)
+			{
+				if (current == null)
+				{
+					root = new Node<E>(v, kFactor);
+					size.increment();
+					levelCounts[0].increment();
+				}
+				else
+					current.value = v;
+				return true;
+			}
+
+			if (current == null)
+				return false;
+			synchronized (current)
+			{
+				if (hasChildren(current))
+					return false;
+				current.deleted = true;
+				root = null;
+				size.decrement();
+				levelCounts[0].decrement();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Helper method that returns whether or not a node has children.
+	 * @param node Node being examined.
+	 * @return boolean value that represents whether or not the node has at least one child.
+	 */
+	private boolean hasChildren(Node<E> node)
+	{
+		for (int i=0; i<kFactor; i++)
+			if (node.children.get(i) != null)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Method that returns the array representation of the tree, as KTree.toArray() does. The nodes are read without
+	 * locking, so the array may include some of the changes made while it was built.
+	 * @return Object type array that holds array representation of the tree.
+	 */
+	public Object[] toArray()
+	{
+		Node<E> start = root;
+		if (start == null)
+			return new Object[0];
+
+		ArrayDeque<Node<E>> nodes = new ArrayDeque<Node<E>>();
+		ArrayDeque<Integer> indexes = new ArrayDeque<Integer>();
+		ArrayDeque<Integer> levels = new ArrayDeque<Integer>();
+		int maxLevel = 0;
+		int completeSize = 1;
+		Object[] array = new Object[1];
+
+		nodes.push(start);
+		indexes.push(0);
+		levels.push(0);
+		while (!nodes.isEmpty())
+		{
+			Node<E> current = nodes.pop();
+			int index = indexes.pop();
+			int level = levels.pop();
+
+			while (level > maxLevel)	// the array grows one level at a time as deeper nodes are found.
+			{
+				maxLevel++;
+				completeSize = completeSize * kFactor + 1;
+			}
+			if (completeSize > array.length)
+				array = Arrays.copyOf(array, completeSize);
+			array[index] = current.value;
+
+			for (int i=0; i<kFactor; i++)
+			{
+				Node<E> child = current.children.get(i);
+				if (child != null)
+				{
+					nodes.push(child);
+					indexes.push(index * kFactor + i + 1);
+					levels.push(level + 1);
+				}
+			}
+		}
+
+		return array;
+	}
+
+	/**
+	 * Method that returns a KTree with the current contents of this tree.
+	 * @return KTree<E> built from the array representation returned by toArray().
+	 */
+	@SuppressWarnings("unchecked")
+	public KTree<E> toKTree()
+	{
+		return new KTree<E>((E[])toArray(), kFactor);
+	}
+
+	/**
+	 * This overrides the getLevelOrderIterator of the interface (TreeIterable). The nodes are visited with a queue
+	 * while iterating.
+	 */
+	public Iterator<E> getLevelOrderIterator()
+	{
+		ArrayDeque<Node<E>> queue = new ArrayDeque<Node<E>>();
+		Node<E> start = root;
+		if (start != null)
+			queue.add(start);
+
+		return new Iterator<E>()
+		{
+			public boolean hasNext()
+			{
+				return !queue.isEmpty();
+			}
+
+			public E next()
+			{
+				if (queue.isEmpty())
+					throw new NullPointerException("There was no next item on tree");
+
+				Node<E> current = queue.remove();
+				for (int i=0; i<kFactor; i++)
+				{
+					Node<E> child = current.children.get(i);	// read once, it may change at any moment.
+					if (child != null)
+						queue.add(child);
+				}
+
+				return current.value;
+			}
+		};
+	}
+
+	/**
+	 * This overrides the getPreOrderIterator of the interface (TreeIterable). The nodes are visited with a stack
+	 * while iterating.
+	 */
+	public Iterator<E> getPreOrderIterator()
+	{
+		ArrayDeque<Node<E>> stack = new ArrayDeque<Node<E>>();
+		Node<E> start = root;
+		if (start != null)
+			stack.push(start);
+
+		return new Iterator<E>()
+		{
+			public boolean hasNext()
+			{
+				return !stack.isEmpty();
+			}
+
+			public E next()
+			{
+				if (stack.isEmpty())
+					throw new NullPointerException("There was no next item on tree");
+
+				Node<E> current = stack.pop();
+				for (int i=kFactor-1; i>=0; i--)	// pushing children in reverse so they are visited in order.
+				{
+					Node<E> child = current.children.get(i);
+					if (child != null)
+						stack.push(child);
+				}
+
+				return current.value;
+			}
+		};
+	}
+
+	/**
+	 * This overrides the getPostOrderIterator of the interface (TreeIterable). The nodes are visited with a stack
+	 * of nodes and the number of the next child to visit of each one of them, while iterating.
+	 */
+	public Iterator<E> getPostOrderIterator()
+	{
+		ArrayDeque<Node<E>> stack = new ArrayDeque<Node<E>>();
+		ArrayDeque<Integer> nextChild = new ArrayDeque<Integer>();
+		Node<E> start = root;
+		if (start != null)
+		{
+			stack.push(start);
+			nextChild.push(0);
+		}
+
+		return new Iterator<E>()
+		{
+			public boolean hasNext()
+			{
+				return !stack.isEmpty();
+			}
+
+			public E next()
+			{
+				if (stack.isEmpty())
+					throw new NullPointerException("There was no next item on tree");
+
+				while (true)
+				{
+					Node<E> current = stack.peek();
+					int i = nextChild.pop();
+					Node<E> child = null;
+
+					while (i < kFactor && (child = current.children.get(i)) == null)	// skipping the missing children.
+						i++;
+
+					if (i == kFactor)			// every child was visited, so this node is next.
+					{
+						stack.pop();
+						return current.value;
+					}
+
+					nextChild.push(i + 1);				// going down to the next child of the current node.
+					stack.push(child);
+					nextChild.push(0);
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,306 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class decodes a coded message that arrives in chunks, publishing the symbols decoded from each chunk to its
+ * subscriber. A code can be split between two chunks: the state of the decoder (the internal node reached in the
+ * code tree) is kept from one chunk to the next, so the chunks behave as a single coded message.
+ *
+ * Chunks are only requested from the producer when there is a subscriber asking for symbols: the processor keeps at
+ * most (bufferCapacity) chunks requested or decoded but not delivered yet, and never more than the subscriber asked
+ * for. A slow subscriber therefore slows down the producer instead of blocking its thread or losing symbols, and the
+ * memory used does not grow with bursts of chunks. Chunks that do not complete any symbol are not published.
+ *
+ * Signals to the subscriber are never sent by two threads at once: whichever thread finds work to do (the producer
+ * sending a chunk, or the subscriber asking for more) delivers everything that can be delivered, and any other
+ * thread only records that there is more work for it.
+ *
+ * Errors in the coded message (invalid digits, digits that lead to missing nodes or a message that ends in the middle
+ * of a code) cancel the subscription to the producer and are sent to the subscriber as an InvalidMessageException.
+ *
+ * @author Sergio Delgado
+ */
+public class DecodeProcessor implements Flow.Processor<CharSequence, String[]>
+{
+	static final int DEFAULT_BUFFER_CAPACITY = 16;	// default max number of chunks requested or waiting.
+
+	final CodeTreeDecoder decoder;		// compiled code tree of the message.
+	final int bufferCapacity;			// max number of chunks requested from the producer or waiting to be delivered.
+	final ArrayDeque<String[]> buffer;	// symbols decoded and not delivered yet (guarded by this).
+	final AtomicInteger work;			// number of times delivery was asked for while a thread was delivering.
+
+	Flow.Subscription upstream;				// subscription to the producer of chunks (guarded by this).
+	Flow.Subscriber<? super String[]> downstream;	// subscriber of the symbols (guarded by this).
+	long demand;					// number of chunks of symbols asked for and not delivered (guarded by this).
+	int pending;					// number of chunks requested from the producer and not received (guarded by this).
+	boolean upstreamDone;			// whether or not the producer sent the whole message (guarded by this).
+	Throwable error;				// error to send to the subscriber (guarded by this).
+	boolean cancelled;				// whether or not the subscriber cancelled (guarded by this).
+	boolean terminated;				// whether or not onComplete or onError was sent to the subscriber (guarded by this).
+	final int[] state;				// state of the decoder at the end of the last chunk (0 between codes).
+	long position;					// number of digits decoded so far.
+
+	/**
+	 * Constructor that initializes the processor for a code tree with the default buffer capacity.
+	 * @param tree KTree<String> Code tree of the message.
+	 */
+	public DecodeProcessor(KTree<String> tree)
+	{
+		this(CodeTreeDecoder.compile(tree), DEFAULT_BUFFER_CAPACITY);
+	}
+
+	/**
+	 * Constructor that initializes the processor with a compiled code tree and the max number of chunks requested
+	 * from the producer or waiting to be delivered.
+	 * @param decoder CodeTreeDecoder Compiled code tree of the message.
+	 * @param bufferCapacity int Max number of chunks requested or waiting.
+	 */
+	public DecodeProcessor(CodeTreeDecoder decoder, int bufferCapacity)
+	{
+		if (bufferCapacity < 1)
+			throw new IllegalArgumentException("buffer capacity must be positive");
+
+		this.decoder = decoder;
+		this.bufferCapacity = bufferCapacity;
+		buffer = new ArrayDeque<String[]>();
+		work = new AtomicInteger();
+		state = new int[1];
+	}
+
+	/**
+	 * Method that adds the subscriber of the decoded symbols. A processor decodes a single message, so it only
+	 * accepts one subscriber; any other one receives an IllegalStateException.
+	 * @param subscriber Flow.Subscriber of the chunks of symbols.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super String[]> subscriber)
+	{
+		boolean accepted;
+		synchronized (this)
+		{
+			accepted = (downstream == null);
+			if (accepted)
+				downstream = subscriber;
+		}
+
+		if (!accepted)
+		{
+			subscriber.onSubscribe(new Flow.Subscription()
+			{
+				public void request(long n)
+				{
+				}
+
+				public void cancel()
+				{
+				}
+			});
+			subscriber.onError(new IllegalStateException("the processor already has a subscriber"));
+			return;
+		}
+
+		subscriber.onSubscribe(new Flow.Subscription()
+		{
+			public void request(long n)
+			{
+				synchronized (DecodeProcessor.this)
+				{
+					if (n <= 0 && error == null)
+						error = new IllegalArgumentException("non-positive request " + n);
+					else
+						demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;	// unbounded once it overflows.
+				}
+				drain();
+			}
+
+			public void cancel()
+			{
+				synchronized (DecodeProcessor.this)
+				{
+					cancelled = true;
+				}
+				drain();
+			}
+		});
+		drain();
+	}
+
+	/**
+	 * Method called when the processor subscribes to a producer of chunks. Nothing is requested until there is a
+	 * subscriber asking for symbols. The subscription is cancelled right away if the processor already has one, or if
+	 * the subscriber cancelled or the processor failed before the producer was subscribed.
+	 * @param subscription Flow.Subscription to the producer.
+	 */
+	@Override
+	public void onSubscribe(Flow.Subscription subscription)
+	{
+		boolean accepted;
+		boolean finished;
+		synchronized (this)
+		{
+			accepted = (upstream == null);
+			if (accepted)
+				upstream = subscription;
+			finished = cancelled || terminated || upstreamDone;
+		}
+
+		if (!accepted || finished)	// a processor only decodes one coded message, and nothing is left to decode.
+			subscription.cancel();
+		else
+			drain();
+	}
+
+	/**
+	 * Method called with every chunk of the coded message. The chunk is decoded starting at the state left by the last
+	 * one, and the symbols decoded wait in the buffer until the subscriber asks for them.
+	 * @param chunk CharSequence with the next digits of the coded message.
+	 */
+	@Override
+	public void onNext(CharSequence chunk)
+	{
+		List<String> symbols = new ArrayList<String>();
+		InvalidMessageException failure = null;
+		try
+		{
+			decoder.decodeChars(chunk, positionOf(0), state, symbols, CodeTreeDecoder.LIST_WRITER, 0);
+		}
+		catch (InvalidMessageException e)
+		{
+			failure = e;
+		}
+		position = position + chunk.length();
+
+		synchronized (this)
+		{
+			pending--;
+			if (failure != null && error == null)
+				error = failure;
+			else if (!symbols.isEmpty())
+				buffer.add(symbols.toArray(new String[symbols.size()]));
+		}
+		drain();
+	}
+
+	/**
+	 * Method called when the producer fails. The error is passed on to the subscriber.
+	 * @param throwable Throwable with the error of the producer.
+	 */
+	@Override
+	public void onError(Throwable throwable)
+	{
+		synchronized (this)
+		{
+			upstreamDone = true;
+			if (error == null)
+				error = throwable;
+		}
+		drain();
+	}
+
+	/**
+	 * Method called when the producer has sent the whole coded message. The subscriber is told the message is over
+	 * once it has received every symbol, unless the message ended in the middle of a code.
+	 */
+	@Override
+	public void onComplete()
+	{
+		synchronized (this)
+		{
+			upstreamDone = true;
+			if (state[0] != 0 && error == null)
+				error = new InvalidMessageException(positionOf(0), "message ended in the middle of a code");
+		}
+		drain();
+	}
+
+	/**
+	 * Helper method that does all the work that can be done: delivering the symbols the subscriber asked for, sending
+	 * the end of the message or an error, and requesting more chunks from the producer. Only one thread at a time runs
+	 * the loop; a thread that finds another one running only tells it to go through the loop once more.
+	 */
+	private void drain()
+	{
+		if (work.getAndIncrement() != 0)
+			return;
+
+		int missed = 1;
+		while (missed != 0)
+		{
+			while (true)		// delivering the symbols asked for, one chunk at a time and out of the lock.
+			{
+				String[] symbols;
+				Flow.Subscriber<? super String[]> subscriber;
+				synchronized (this)
+				{
+					if (cancelled || terminated || error != null || demand == 0 || buffer.isEmpty())
+						break;
+					symbols = buffer.poll();
+					if (demand != Long.MAX_VALUE)
+						demand--;
+					subscriber = downstream;
+				}
+				subscriber.onNext(symbols);
+			}
+
+			Flow.Subscriber<? super String[]> finished = null;	// subscriber to send the end of the message to.
+			Throwable failure = null;
+			Flow.Subscription toCancel = null;
+			Flow.Subscription toRequest = null;
+			long requested = 0;
+
+			synchronized (this)
+			{
+				if (cancelled || (error != null && !terminated))	// nothing else is requested from the producer.
+				{
+					if (!upstreamDone)
+						toCancel = upstream;
+					upstreamDone = true;
+					buffer.clear();
+				}
+
+				if (!cancelled && !terminated && downstream != null
+						&& (error != null || (upstreamDone && buffer.isEmpty())))
+				{
+					terminated = true;
+					finished = downstream;
+					failure = error;
+				}
+
+				if (!upstreamDone && !terminated && upstream != null && downstream != null)
+				{
+					long wanted = Math.min(bufferCapacity, demand) - buffer.size() - pending;
+					if (wanted > 0)		// chunks are only requested for symbols the subscriber asked for.
+					{
+						pending = pending + (int)wanted;
+						toRequest = upstream;
+						requested = wanted;
+					}
+				}
+			}
+
+			if (toCancel != null)
+				toCancel.cancel();
+			if (finished != null && failure != null)
+				finished.onError(failure);
+			else if (finished != null)
+				finished.onComplete();
+			if (toRequest != null)
+				toRequest.request(requested);
+
+			missed = work.addAndGet(-missed);
+		}
+	}
+
+	/**
+	 * Helper method that returns the position in the whole coded message of a digit of the current chunk.
+	 * @param index int Index of the digit in the current chunk.
+	 * @return int value with the position of the digit (Integer.MAX_VALUE if it does not fit in an int).
+	 */
+	private int positionOf(int index)
+	{
+		return (int)Math.min(position + index, Integer.MAX_VALUE);
+	}
+}
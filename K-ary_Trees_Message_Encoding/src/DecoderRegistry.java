@@ -0,0 +1,211 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps the compiled decoders of many code trees, indexed by the fingerprint of each tree, so a message
+ * can be decoded with its codebook by looking up the fingerprint instead of keeping every tree alive or building the
+ * tree again. Lookups can be made by many threads at once, and each one is a single probe of a concurrent hash map.
+ *
+ * The registry has a limit on the number of decoders and on their total memory footprint. When a limit is exceeded,
+ * the least recently used decoders are evicted. Eviction looks through all the entries to find the oldest one, which
+ * is cheap for the hundreds of codebooks the registry is meant for, and it only happens when decoders are added.
+ *
+ * The last use of each decoder is an approximate time stamp (System.nanoTime()) that a lookup only writes when it is
+ * older than STALE_NANOS, so lookups of a popular decoder do not all write to the same field, and there is no counter
+ * shared by every lookup. Decoders used within the same STALE_NANOS may be evicted in any order among themselves.
+ *
+ * @author Sergio Delgado
+ */
+public class DecoderRegistry
+{
+	/**
+	 * This is a nested class that holds a decoder in the registry along with the last time it was used.
+	 */
+	private static class Entry
+	{
+		final CodeTreeDecoder decoder;	// compiled code tree.
+		final long footprint;			// memory used by the decoder, in bytes.
+		volatile long lastUse;			// System.nanoTime() the last time the decoder was used (approximately).
+
+		/**
+		 * Constructor that initializes the entry of a decoder.
+		 */
+		Entry(CodeTreeDecoder decoder, long lastUse)
+		{
+			this.decoder = decoder;
+			this.footprint = decoder.memoryFootprint();
+			this.lastUse = lastUse;
+		}
+	}
+
+	static final long STALE_NANOS = 1000000;	// age of the last use of a decoder before a lookup updates it.
+
+	final int maxEntries;						// max number of decoders kept.
+	final long maxFootprint;					// max total memory used by the decoders, in bytes.
+	final ConcurrentHashMap<String, Entry> entries;	// decoders indexed by fingerprint.
+	final AtomicLong footprint;					// total memory used by the decoders kept.
+	final LongAdder hits;						// number of lookups that found their decoder.
+	final LongAdder misses;						// number of lookups that did not find their decoder.
+	final LongAdder evictions;					// number of decoders evicted.
+
+	/**
+	 * Constructor that initializes an empty registry with its limits.
+	 * @param maxEntries int Max number of decoders kept.
+	 * @param maxFootprint long Max total memory used by the decoders, in bytes.
+	 */
+	public DecoderRegistry(int maxEntries, long maxFootprint)
+	{
+		if (maxEntries < 1 || maxFootprint < 1)
+			throw new IllegalArgumentException("the limits of the registry must be positive");
+
+		this.maxEntries = maxEntries;
+		this.maxFootprint = maxFootprint;
+		entries = new ConcurrentHashMap<String, Entry>();
+		footprint = new AtomicLong();
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+	}
+
+	/**
+	 * Method that returns the decoder of the code tree with a fingerprint.
+	 * @param fingerprint String Fingerprint of the code tree (see CodeTreeDecoder.getFingerprint()).
+	 * @return CodeTreeDecoder of the code tree, or null if it is not in the registry.
+	 */
+	public CodeTreeDecoder get(String fingerprint)
+	{
+		Entry entry = entries.get(fingerprint);
+		if (entry == null)
+		{
+			misses.increment();
+			return null;
+		}
+
+		hits.increment();
+		long now = System.nanoTime();
+		if (now - entry.lastUse > STALE_NANOS)		// only written once in a while, not on every lookup.
+			entry.lastUse = now;
+		return entry.decoder;
+	}
+
+	/**
+	 * Method that compiles a code tree and adds its decoder to the registry, unless a decoder with the same fingerprint
+	 * is already there. Least recently used decoders are evicted if a limit is exceeded.
+	 * @param tree KTree<String> Code tree to register.
+	 * @return CodeTreeDecoder kept in the registry for the tree.
+	 */
+	public CodeTreeDecoder register(KTree<String> tree)
+	{
+		return register(CodeTreeDecoder.compile(tree));
+	}
+
+	/**
+	 * Method that adds a compiled decoder to the registry, unless a decoder with the same fingerprint is already
+	 * there. Least recently used decoders are evicted if a limit is exceeded.
+	 * @param decoder CodeTreeDecoder Decoder to register.
+	 * @return CodeTreeDecoder kept in the registry for the fingerprint of (decoder).
+	 */
+	public CodeTreeDecoder register(CodeTreeDecoder decoder)
+	{
+		Entry entry = new Entry(decoder, System.nanoTime());
+		Entry existing = entries.putIfAbsent(decoder.getFingerprint(), entry);
+		if (existing != null)
+		{
+			existing.lastUse = entry.lastUse;
+			return existing.decoder;
+		}
+
+		footprint.addAndGet(entry.footprint);
+		evict();
+		return decoder;
+	}
+
+	/**
+	 * Method that removes the decoder of a code tree from the registry.
+	 * @param fingerprint String Fingerprint of the code tree.
+	 * @return boolean value that represents whether or not the decoder was in the registry.
+	 */
+	public boolean remove(String fingerprint)
+	{
+		Entry entry = entries.remove(fingerprint);
+		if (entry != null)
+			footprint.addAndGet(-entry.footprint);
+		return entry != null;
+	}
+
+	/**
+	 * Helper method that evicts the least recently used decoders while a limit of the registry is exceeded. It is
+	 * synchronized so two threads adding decoders do not evict more than needed.
+	 */
+	private synchronized void evict()
+	{
+		while (entries.size() > maxEntries || (footprint.get() > maxFootprint && entries.size() > 1))
+		{
+			String oldestKey = null;
+			Entry oldest = null;
+			for (Map.Entry<String, Entry> e : entries.entrySet())	// finding the least recently used decoder.
+			{
+				if (oldest == null || e.getValue().lastUse - oldest.lastUse < 0)	// nanoTime() values may wrap around.
+				{
+					oldestKey = e.getKey();
+					oldest = e.getValue();
+				}
+			}
+
+			if (oldest == null)
+				return;
+			if (entries.remove(oldestKey, oldest))
+			{
+				footprint.addAndGet(-oldest.footprint);
+				evictions.increment();
+			}
+		}
+	}
+
+	/**
+	 * Method that returns the number of decoders in the registry.
+	 * @return int value with the number of decoders.
+	 */
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Method that returns the total memory used by the decoders in the registry.
+	 * @return long value with the approximate number of bytes used.
+	 */
+	public long footprint()
+	{
+		return footprint.get();
+	}
+
+	/**
+	 * Method that returns the number of lookups that found their decoder.
+	 * @return long value with the number of hits.
+	 */
+	public long hitCount()
+	{
+		return hits.sum();
+	}
+
+	/**
+	 * Method that returns the number of lookups that did not find their decoder.
+	 * @return long value with the number of misses.
+	 */
+	public long missCount()
+	{
+		return misses.sum();
+	}
+
+	/**
+	 * Method that returns the number of decoders evicted because a limit was exceeded.
+	 * @return long value with the number of evictions.
+	 */
+	public long evictionCount()
+	{
+		return evictions.sum();
+	}
+}
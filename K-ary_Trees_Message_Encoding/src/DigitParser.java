@@ -0,0 +1,115 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * This class converts the characters of a coded message into the digit values used to move down a code tree, in a
+ * single pass before decoding, so the decoding loop only reads a compact buffer of digits.
+ *
+ * Characters are converted with a lookup table for ASCII (the same values Character.getNumericValue() returns) and
+ * Character.getNumericValue() is only used for other characters. Messages received as ASCII bytes with k up to 10
+ * are converted eight digits at a time: eight bytes are read as one long value, all of them are checked to be
+ * between '0' and the largest digit with a few arithmetic operations on the whole word, and '0' is subtracted from
+ * the eight of them with a single subtraction.  Words with an invalid byte, and the last bytes of the message, are
+ * converted one byte at a time.
+ *
+ * @author Sergio Delgado
+ */
+public class DigitParser
+{
+	static final byte[] ASCII_DIGITS = new byte[128];	// digit value of every ASCII character (-1 if it is not a digit).
+	static final long ONES = 0x0101010101010101L;		// value 1 in each of the eight bytes of a long.
+	static final long HIGH_BITS = 0x8080808080808080L;	// highest bit of each of the eight bytes of a long.
+	static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	static
+	{
+		for (char c=0; c<128; c++)
+			ASCII_DIGITS[c] = (byte)Character.getNumericValue(c);
+	}
+
+	/**
+	 * Method that returns the digit value of a character of a coded message.
+	 * @param c char Character of the coded message.
+	 * @return int value of the digit, as returned by Character.getNumericValue().
+	 */
+	static int digit(char c)
+	{
+		return (c < 128) ? ASCII_DIGITS[c] : Character.getNumericValue(c);
+	}
+
+	/**
+	 * Method that converts every character of a coded message into its digit value, without checking them. Characters
+	 * that are not digits become -1 (or the value of Character.getNumericValue() if it does not fit in a byte).
+	 * @param codedMessage CharSequence Coded message.
+	 * @param digits byte array where the digit value of every character is stored (at least as long as the message).
+	 */
+	public static void toDigits(CharSequence codedMessage, byte[] digits)
+	{
+		int length = codedMessage.length();
+		for (int i=0; i<length; i++)
+			digits[i] = (byte)digit(codedMessage.charAt(i));
+	}
+
+	/**
+	 * Method that converts every character of a coded message into its digit value, checking that all of them are
+	 * digits of a code with k factor (k).
+	 * @param codedMessage CharSequence Coded message.
+	 * @param k int K factor of the code (at most 36, since digits are 0-9 and then a-z).
+	 * @param digits byte array where the digit value of every character is stored (at least as long as the message).
+	 * @throws InvalidMessageException at the position of the first character that is not a valid digit.
+	 */
+	public static void parse(CharSequence codedMessage, int k, byte[] digits)
+	{
+		int length = codedMessage.length();
+		for (int i=0; i<length; i++)
+		{
+			int digit = digit(codedMessage.charAt(i));
+			if (digit < 0 || digit >= k)
+				throw new InvalidMessageException(i, "invalid digit '" + codedMessage.charAt(i) + "'");
+			digits[i] = (byte)digit;
+		}
+	}
+
+	/**
+	 * Method that converts a coded message received as ASCII bytes into digit values, checking that all of them are
+	 * digits of a code with k factor (k). When k is at most 10 the bytes are converted eight at a time.
+	 * @param message byte array with the coded message.
+	 * @param offset int Position of the first byte of the message.
+	 * @param length int Number of bytes of the message.
+	 * @param k int K factor of the code (at most 36).
+	 * @param digits byte array where the digit values are stored, starting at position 0.
+	 * @throws InvalidMessageException at the position (relative to offset) of the first byte that is not a valid digit.
+	 */
+	public static void parse(byte[] message, int offset, int length, int k, byte[] digits)
+	{
+		int i = 0;
+
+		if (k <= 10)
+		{
+			long below = ONES * '0';				// '0' in every byte.
+			long above = ONES * (127 - ('0' + k - 1));	// added to a byte, sets its high bit if it is above the largest digit.
+
+			for (; i + 8 <= length; i += 8)
+			{
+				long word = (long)LONGS.get(message, offset + i);
+				long tooSmall = (word - below) & ~word & HIGH_BITS;	// high bit set for some byte smaller than '0'.
+				long tooBig = ((word + above) | word) & HIGH_BITS;	// high bit set for some byte bigger than the largest digit.
+
+				if ((tooSmall | tooBig) != 0)		// an invalid byte, it is found converting one byte at a time.
+					break;
+
+				LONGS.set(digits, i, word - below);
+			}
+		}
+
+		for (; i<length; i++)
+		{
+			int b = message[offset + i] & 0xFF;
+			int digit = (b < 128) ? ASCII_DIGITS[b] : -1;
+			if (digit < 0 || digit >= k)
+				throw new InvalidMessageException(i, "invalid digit '" + (char)b + "'");
+			digits[i] = (byte)digit;
+		}
+	}
+}
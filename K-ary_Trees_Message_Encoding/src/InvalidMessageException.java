@@ -0,0 +1,33 @@
+/**
+ * Exception thrown when a coded message can not be decoded with a code tree, either because one of its
+ * characters is not a valid digit for the k factor of the tree, because a digit leads to a child that does
+ * not exist, or because the message ends in the middle of a code.
+ *
+ * @author Sergio Delgado
+ */
+public class InvalidMessageException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int position;		// index of the digit of the coded message where the problem was found.
+
+	/**
+	 * Constructor that initializes the position in the coded message where decoding failed.
+	 * @param position int Index of the offending digit (or the length of the message if it ended too early).
+	 * @param reason String Short description of the problem.
+	 */
+	public InvalidMessageException(int position, String reason)
+	{
+		super(reason + " at position " + position);
+		this.position = position;
+	}
+
+	/**
+	 * Method that returns the position in the coded message where decoding failed.
+	 * @return int value with the index of the offending digit.
+	 */
+	public int getPosition()
+	{
+		return position;
+	}
+}
@@ -1,8 +1,19 @@
 import java.util.Iterator;
 import java.util.Scanner;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * This class will provide all the basic methods to handle operations on a K-ary tree linked
@@ -18,8 +29,21 @@ public class KTree<E> implements TreeIterable<E>
 	int kFactor;			// k factor of the tree (max number of children per node).
 	int size;				// size of the tree (number of elements).
 	int height;             // height of the tree.
-	int currentHeight;      // Auxiliar variable used when calculating height of tree.
-	int tracer;				// Auxiliar variable used when traversing the tree (keeps track current index)
+	int[] levelCounts;		// number of nodes at each level of the tree (index 0 is the level of the root).
+	int modCount;			// number of changes made to the tree, used to know when the cached traversals are outdated.
+	int cacheStamp;			// value of modCount when the cached traversals were stored.
+	boolean compressed;		// whether or not some nodes may be shared by many parents (see compress()).
+	SoftReference<?>[] caches = new SoftReference<?>[8];	// cached traversals, released by the garbage collector if needed.
+	
+	static final int ARRAY = 0;					// positions in (caches) of each traversal of the tree.
+	static final int LEVEL_ORDER = 1;
+	static final int PRE_ORDER = 2;
+	static final int POST_ORDER = 3;
+	static final int STRING = 4;
+	static final int STRING_LEVEL_ORDER = 5;
+	static final int STRING_PRE_ORDER = 6;
+	static final int STRING_POST_ORDER = 7;
+	static final int CACHE_LIMIT = 1 << 20;		// longest traversal that is kept in the cache.
 	TreeNode<E> root;		// Reference to the root node of the tree.
 
 	/**
@@ -29,10 +53,12 @@ public class KTree<E> implements TreeIterable<E>
 	 *
 	 * @param <E> Generic type that will be used to define the type of value the tree nodes will hold. 
 	 */
-	private class TreeNode<E>
+	class TreeNode<E>
 	{
 		E value;				// data stored in the tree node.
 		TreeNode<E>[] children;	// array of references to the children nodes of this node.
+		boolean shared;			// whether or not the node may be reached from more than one parent (see compress()).
+		long hash;				// structural hash of the subtree of the node (0 when it has to be calculated again).
 
 		/**
 		 * Constructor that will initialize the value of the data stored in the node and the array
@@ -58,53 +84,276 @@ public class KTree<E> implements TreeIterable<E>
 		kFactor = k;
 		height = 0;
 		size = 0;
-		currentHeight = 0;
+		levelCounts = new int[1];
 		
 		if (arrayTree.length == 0)
 			root = null;
 		else
-		{	
-			size = 1;
-			root = new TreeNode<E>(arrayTree[0]);
-			build(root, 0, arrayTree);				// building the tree with with the new root.
+			rebuild(arrayTree);						// building the tree with with the new root.
+	}
+	
+	/**
+	 * Constructor that builds the tree from its array representation like KTree(arrayTree, k), but when (parallel) is
+	 * true and the array is large enough, the subtrees are built as fork-join tasks. Each task builds its own subtree
+	 * and calculates its size, height and number of nodes per level, without using the fields of the tree, and the
+	 * results of the children are merged by their parent task. The tree built is the same one built sequentially.
+	 * @param arrayTree Generic array with the array representation of the tree.
+	 * @param k int K factor of the tree.
+	 * @param parallel boolean Whether or not to build the subtrees in parallel.
+	 * @throws InvalidKException if k is smaller than 2, since the number of tasks would never grow with the levels.
+	 */
+	public KTree (E[] arrayTree, int k, boolean parallel)
+	{
+		this(k);
+		
+		if (k < 2)
+			throw new InvalidKException();
+		
+		if (arrayTree.length == 0)
+			root = null;
+		else if (!parallel || arrayTree.length < PARALLEL_THRESHOLD)	// not worth splitting the work.
+			rebuild(arrayTree);
+		else
+		{
+			int forkDepth = 0;			// tasks are forked for the nodes above this level.
+			long tasks = 1;
+			while (tasks < 4L * ForkJoinPool.getCommonPoolParallelism())
+			{
+				tasks = tasks * kFactor;
+				forkDepth++;
+			}
+			
+			Subtree built = ForkJoinPool.commonPool().invoke(new BuildTask(0, 0, forkDepth, arrayTree));
+			root = built.node;
+			size = built.size;
+			height = built.levelCounts.length - 1;
+			levelCounts = built.levelCounts;
+		}
+	}
+	
+	static final int PARALLEL_THRESHOLD = 1 << 15;	// smallest array that is built in parallel.
+	
+	/**
+	 * This is a nested class that holds a subtree built by a BuildTask, along with its size and the number of nodes
+	 * in every level of the subtree (the height of the subtree is the number of levels minus one).
+	 */
+	private class Subtree
+	{
+		TreeNode<E> node;		// root of the subtree.
+		int size;				// number of nodes of the subtree.
+		int[] levelCounts;		// number of nodes at each level of the subtree (index 0 is the level of its root).
+	}
+	
+	/**
+	 * This is a nested class that builds the subtree at one index of the array representation of the tree. Above the
+	 * fork depth, the subtree of every child is built by a new task, otherwise the subtree is built sequentially.
+	 */
+	@SuppressWarnings("serial")
+	private class BuildTask extends RecursiveTask<Subtree>
+	{
+		int index;				// index of the root of the subtree in the array representation.
+		int depth;				// level of the root of the subtree in the whole tree.
+		int forkDepth;			// level where tasks stop being forked.
+		E[] arrayTree;			// array representation of the whole tree.
+		
+		/**
+		 * Constructor that initializes the subtree to build by this task.
+		 */
+		BuildTask(int index, int depth, int forkDepth, E[] arrayTree)
+		{
+			this.index = index;
+			this.depth = depth;
+			this.forkDepth = forkDepth;
+			this.arrayTree = arrayTree;
+		}
+		
+		/**
+		 * Method that builds the subtree of this task, forking one task per child above the fork depth and merging
+		 * their results.
+		 * @return Subtree built by this task.
+		 */
+		protected Subtree compute()
+		{
+			Subtree result = new Subtree();
+			result.node = new TreeNode<E>(arrayTree[index]);
+			
+			if (depth >= forkDepth)
+			{
+				result.levelCounts = new int[1];
+				buildSubtree(result.node, index, arrayTree, result);
+				return result;
+			}
+			
+			int[] chIndexArray = getChildren(index, arrayTree);
+			@SuppressWarnings({"unchecked", "rawtypes"})
+			BuildTask[] tasks = new KTree.BuildTask[kFactor];
+			for (int i=0; i<kFactor; i++)	// forking one task per child.
+			{
+				if (chIndexArray[i] != -1)
+				{
+					tasks[i] = new BuildTask(chIndexArray[i], depth + 1, forkDepth, arrayTree);
+					tasks[i].fork();
+				}
+			}
+			
+			result.size = 1;
+			result.levelCounts = new int[] { 1 };
+			for (int i=0; i<kFactor; i++)	// merging the subtrees of the children.
+			{
+				if (tasks[i] != null)
+				{
+					Subtree child = tasks[i].join();
+					result.node.children[i] = child.node;
+					result.size = result.size + child.size;
+					
+					if (child.levelCounts.length + 1 > result.levelCounts.length)
+					{
+						int[] expanded = new int[child.levelCounts.length + 1];
+						for (int d=0; d<result.levelCounts.length; d++)
+							expanded[d] = result.levelCounts[d];
+						result.levelCounts = expanded;
+					}
+					for (int d=0; d<child.levelCounts.length; d++)
+						result.levelCounts[d+1] = result.levelCounts[d+1] + child.levelCounts[d];
+				}
+			}
+			return result;
+		}
+	}
+	
+	/**
+	* This method builds a subtree sequentially for a BuildTask. It works like the method build, but the size and the
+	* nodes per level are kept in (result) instead of the fields of the tree, so several subtrees can be built at once.
+	* @param start Reference to a node that is the root of the subtree being built.
+	* @param startIndex int that represents the index of (start) in the array representation.
+	* @param arrayTree Generic array with the array representation of the tree.
+	* @param result Subtree where the size and number of nodes per level are accumulated.
+	*/
+	private void buildSubtree(TreeNode<E> start, int startIndex, E[] arrayTree, Subtree result)
+	{
+		ArrayDeque<TreeNode<E>> nodes = new ArrayDeque<TreeNode<E>>();	// nodes whose children are not built yet.
+		int[] indexes = new int[16];		// index of each one of those nodes in the array representation.
+		int[] levels = new int[16];			// level of each one of those nodes inside the subtree.
+		int pending = 0;					// number of nodes in the stack.
+		
+		nodes.push(start);
+		indexes[pending] = startIndex;
+		levels[pending++] = 0;
+		
+		while (pending > 0)
+		{
+			TreeNode<E> current = nodes.pop();
+			int curIndex = indexes[--pending];
+			int level = levels[pending];
+			
+			result.size++;
+			if (level >= result.levelCounts.length)
+				result.levelCounts = Arrays.copyOf(result.levelCounts, level + 1);
+			result.levelCounts[level]++;
+			
+			int[] chIndexArray = getChildren(curIndex, arrayTree);
+			for (int i=0; i<kFactor; i++)
+			{
+				if (chIndexArray[i] != -1)
+				{
+					current.children[i] = new TreeNode<E>(arrayTree[chIndexArray[i]]);
+					
+					if (pending == indexes.length)
+					{
+						indexes = Arrays.copyOf(indexes, pending * 2);
+						levels = Arrays.copyOf(levels, pending * 2);
+					}
+					nodes.push(current.children[i]);
+					indexes[pending] = chIndexArray[i];
+					levels[pending++] = level + 1;
+				}
+			}
 		}
 	}
 	
+	/**
+	 * Constructor used by the Builder that creates an empty tree with the k factor received (k). The nodes are linked
+	 * by the Builder afterwards.
+	 */
+	private KTree(int k)
+	{
+		kFactor = k;
+		height = 0;
+		size = 0;
+		levelCounts = new int[1];
+		root = null;
+	}
+	
+	/**
+	* This method (re)builds the whole linked structure of the tree from its array representation, by creating a
+	* new root and then calling build, which links the rest of the nodes with an explicit stack. The size, height and
+	* number of nodes per level of the tree are calculated again while building.
+	* @param arrayTree Generic array of elements of type (E) with the array representation of the tree.
+	*/
+	private void rebuild(E[] arrayTree)
+	{
+		height = 0;
+		size = 1;
+		levelCounts = new int[1];
+		levelCounts[0] = 1;
+		compressed = false;
+		root = new TreeNode<E>(arrayTree[0]);
+		build(root, 0, arrayTree);
+	}
+	
 	/**
 	* This method builds the tree as a linked structure, from the tree stored in the form of
-	* an array, which is received as a parameter. This method is recursive.
-	* @param current Reference to a node that is the root of the subtree being built in this call to the method.
-	* @param curIndex int that represents the index that the root to this subtree would have in an array representation.
+	* an array, which is received as a parameter. Instead of calling itself for every child, this method keeps
+	* the nodes that still have to be expanded in a stack (along with their index and level), so the depth of the
+	* tree is not limited by the size of the thread stack.
+	* @param start Reference to a node that is the root of the subtree being built.
+	* @param startIndex int that represents the index that the root to this subtree would have in an array representation.
 	* @param arrayTree Generic array of elements of type (E) that is temporarily storing the tree representation of 
 	* the k-ary tree. Where there is no elements in the tree the position in the array will be of value (null). The
 	* array is as long as if the tree was a full complete tree.
 	*/
-	private void build(TreeNode<E> current, int curIndex, E[] arrayTree)
+	private void build(TreeNode<E> start, int startIndex, E[] arrayTree)
 	{
-		int[] chIndexArray = getChildren(curIndex, arrayTree);  // getting list of indexes to children of this node in
-																// the array representation of tree.
-		TreeNode<E> newChild;
+		ArrayDeque<TreeNode<E>> nodes = new ArrayDeque<TreeNode<E>>();	// nodes whose children are not built yet.
+		int[] indexes = new int[16];		// index of each one of those nodes in the array representation.
+		int[] levels = new int[16];			// level of each one of those nodes in the tree.
+		int pending = 0;					// number of nodes in the stack.
+		
+		nodes.push(start);
+		indexes[pending] = startIndex;
+		levels[pending++] = 0;
 		
-		for(int i=0; i<kFactor; i++)     //  traversing list of children
+		while (pending > 0)
 		{
-			if(chIndexArray[i] == -1)		// if this position on children-indexes array is -1, the link to child is null.
-				current.children[i] = null;
-			else							// if this position is one of a child to this node...
+			TreeNode<E> current = nodes.pop();
+			int curIndex = indexes[--pending];
+			int level = levels[pending];
+			
+			int[] chIndexArray = getChildren(curIndex, arrayTree);  // getting list of indexes to children of this node in
+																	// the array representation of tree.
+			for(int i=0; i<kFactor; i++)     //  traversing list of children
 			{
-				size++;						// increase size of the tree.
-				newChild = new TreeNode<E>( arrayTree[chIndexArray[i]] );  // create a new node for the child
-				current.children[i] = newChild; 						   // and link it to the list of children.
-				
-				currentHeight++;             // height of tree grew at this point
-				if (currentHeight > height)		//  if current height is greater than official height
-					height++;					//  update the official height of the tree
-				
-				build(newChild, chIndexArray[i], arrayTree);  // recursive call to the method (build), with the 
-												// current child as the root of the new subtree cuil by t
-				
-				currentHeight--;			//  decrease the current height of tree before leaving this
-											//  iteration of method (build) since at this point the 
-											//  program will be moving back up one level in the tree.
+				if(chIndexArray[i] == -1)		// if this position on children-indexes array is -1, the link to child is null.
+					current.children[i] = null;
+				else							// if this position is one of a child to this node...
+				{
+					size++;						// increase size of the tree.
+					TreeNode<E> newChild = new TreeNode<E>( arrayTree[chIndexArray[i]] );  // create a new node for the child
+					current.children[i] = newChild; 						   			  // and link it to the list of children.
+					
+					if (level + 1 > height)		//  if the level of the child is greater than official height
+						height = level + 1;		//  update the official height of the tree
+					countLevel(level + 1);		//  one more node in the level being built
+					
+					if (pending == indexes.length)	// making room in the stacks of indexes and levels.
+					{
+						indexes = Arrays.copyOf(indexes, pending * 2);
+						levels = Arrays.copyOf(levels, pending * 2);
+					}
+					nodes.push(newChild);		// the children of the new node will be built later.
+					indexes[pending] = chIndexArray[i];
+					levels[pending++] = level + 1;
+				}
 			}
 		}
 	}
@@ -133,7 +382,265 @@ public class KTree<E> implements TreeIterable<E>
 		return chList;
 	}
 	
+	/**
+	* Method that adds one node to the count of nodes of a level of the tree, making room for a new level if needed.
+	* @param level int Level of the tree where a node was added (0 is the level of the root).
+	*/
+	private void countLevel(int level)
+	{
+		if (level >= levelCounts.length)
+		{
+			int[] expanded = new int[Math.max(level + 1, levelCounts.length * 2)];
+			for (int i=0; i<levelCounts.length; i++)
+				expanded[i] = levelCounts[i];
+			levelCounts = expanded;
+		}
+		levelCounts[level]++;
+	}
+	
+	/**
+	 * This is a nested class that builds a tree one element at a time, without the array representation of the tree.
+	 * Elements can be given as (index, value) pairs, as edges (index of the parent, child number and value) or as the
+	 * symbols of a prefix code with the digits of their paths. Nodes are linked as soon as their parent exists, and
+	 * the ones that arrive before their parent wait until build() links them, so the whole tree is built in time
+	 * and memory proportional to the number of elements.
+	 *
+	 * @author Sergio Delgado
+	 *
+	 * @param <E> Generic type of the values of the tree being built.
+	 */
+	public static class Builder<E>
+	{
+		KTree<E> tree;										// tree being built.
+		E internalValue;									// value of the internal nodes created by code().
+		HashMap<Integer, KTree<E>.TreeNode<E>> byIndex;		// nodes that have an index in the array representation.
+		TreeMap<Integer, KTree<E>.TreeNode<E>> pending;		// nodes whose parent did not exist when they were added.
+		IdentityHashMap<KTree<E>.TreeNode<E>, Boolean> symbols;	// leaves added by code(), which can not have children.
+		
+		/**
+		 * Constructor that initializes an empty tree with the k factor received (k).
+		 * @param k int K factor of the tree to build.
+		 */
+		public Builder(int k)
+		{
+			if (k < 2)
+				throw new InvalidKException();
+			
+			tree = new KTree<E>(k);
+			byIndex = new HashMap<Integer, KTree<E>.TreeNode<E>>();
+			pending = new TreeMap<Integer, KTree<E>.TreeNode<E>>();
+			symbols = new IdentityHashMap<KTree<E>.TreeNode<E>, Boolean>();
+		}
+		
+		/**
+		 * Method that sets the value that code() gives to the internal nodes it has to create.
+		 * @param v Generic type value of the internal nodes (for example "_" for code trees).
+		 * @return this Builder.
+		 */
+		public Builder<E> internalValue(E v)
+		{
+			internalValue = v;
+			return this;
+		}
+		
+		/**
+		 * Method that adds an element at position (index) of the tree. If there is already an element at that position,
+		 * its value is replaced.
+		 * @param index int Position of the element in the array representation of the tree.
+		 * @param v Generic type value of the element.
+		 * @return this Builder.
+		 * @throws InvalidTreeException if the index is negative or the value is null.
+		 */
+		public Builder<E> put(int index, E v)
+		{
+			if (index < 0 || v == null)
+				throw new InvalidTreeException();
+			
+			KTree<E>.TreeNode<E> node = byIndex.get(index);
+			if (node != null)				// replacing the value of an existing element.
+			{
+				node.value = v;
+				return this;
+			}
+			
+			node = tree.new TreeNode<E>(v);
+			byIndex.put(index, node);
+			
+			if (index == 0)
+				tree.root = node;
+			else
+			{
+				KTree<E>.TreeNode<E> parent = byIndex.get((index - 1) / tree.kFactor);
+				if (parent != null)
+					link(parent, (index - 1) % tree.kFactor, node);
+				else
+					pending.put(index, node);	// it will be linked by build() once its parent exists.
+			}
+			return this;
+		}
+		
+		/**
+		 * Method that adds an element as the child number (slot) of the element at position (parentIndex).
+		 * @param parentIndex int Position of the parent in the array representation of the tree.
+		 * @param slot int Child number of the new element (from 0 to k-1).
+		 * @param v Generic type value of the element.
+		 * @return this Builder.
+		 * @throws InvalidTreeException if the slot is not valid or the position of the child is too big for an index.
+		 */
+		public Builder<E> edge(int parentIndex, int slot, E v)
+		{
+			long index = (long)parentIndex * tree.kFactor + slot + 1;
+			if (parentIndex < 0 || slot < 0 || slot >= tree.kFactor || index > Integer.MAX_VALUE)
+				throw new InvalidTreeException();
+			
+			return put((int)index, v);
+		}
+		
+		/**
+		 * Method that adds a symbol of a prefix code as a leaf of the tree, at the end of the path given by the digits
+		 * of its code. The internal nodes on the path are created with the internal value when they do not exist yet.
+		 * The code must keep the tree a prefix code: no code can go through or end at the leaf of another symbol, and no
+		 * code can end at an internal node.
+		 * @param symbol Generic type value of the leaf.
+		 * @param digits String with the digits of the code of the symbol (same digits used by KTree.decode()).
+		 * @return this Builder.
+		 * @throws InvalidTreeException if the code is empty, has an invalid digit or breaks the prefix code.
+		 */
+		public Builder<E> code(E symbol, String digits)
+		{
+			int[] values = new int[digits.length()];
+			for (int i=0; i<values.length; i++)
+				values[i] = Character.getNumericValue(digits.charAt(i));
+			return code(symbol, values);
+		}
+		
+		/**
+		 * Method that adds a symbol of a prefix code as a leaf of the tree like code(E, String), with the digits of its
+		 * code given as their numeric values, so k factors with more digits than characters 0-9 and a-z can be used.
+		 * @param symbol Generic type value of the leaf.
+		 * @param digits int array with the digits of the code of the symbol (most significant first).
+		 * @return this Builder.
+		 * @throws InvalidTreeException if the code is empty, has an invalid digit or breaks the prefix code.
+		 */
+		Builder<E> code(E symbol, int[] digits)
+		{
+			if (symbol == null || internalValue == null || digits.length == 0)
+				throw new InvalidTreeException();
+			
+			int k = tree.kFactor;
+			if (tree.root == null)
+				put(0, internalValue);
+			
+			KTree<E>.TreeNode<E> current = tree.root;
+			long index = 0;				// index of the current node (or -1 once it does not fit in an int anymore).
+			
+			for (int i=0; i<digits.length; i++)
+			{
+				int digit = digits[i];
+				if (digit < 0 || digit >= k || symbols.containsKey(current))	// invalid digit or going through a leaf.
+					throw new InvalidTreeException();
+				
+				if (index >= 0)
+				{
+					index = index * k + digit + 1;
+					if (index > Integer.MAX_VALUE)
+						index = -1;
+				}
+				
+				boolean last = (i == digits.length - 1);
+				KTree<E>.TreeNode<E> child = current.children[digit];
+				
+				if (child != null && last)		// code ends at a node that already exists.
+					throw new InvalidTreeException();
+				
+				if (child == null && index >= 0 && byIndex.containsKey((int)index))	// node added by put() waiting for this parent.
+				{
+					child = pending.remove((int)index);
+					if (child == null || last)
+						throw new InvalidTreeException();
+					link(current, digit, child);
+				}
+				
+				if (child == null)
+				{
+					child = tree.new TreeNode<E>(last ? symbol : internalValue);
+					link(current, digit, child);
+					if (index >= 0)
+						byIndex.put((int)index, child);
+				}
+				current = child;
+			}
+			
+			symbols.put(current, Boolean.TRUE);
+			return this;
+		}
+		
+		/**
+		 * Helper method that links a node as a child of another one, checking that the position is still free.
+		 * @param parent TreeNode Parent node.
+		 * @param slot int Child number of the node.
+		 * @param child TreeNode Node to link.
+		 */
+		private void link(KTree<E>.TreeNode<E> parent, int slot, KTree<E>.TreeNode<E> child)
+		{
+			if (parent.children[slot] != null || symbols.containsKey(parent))
+				throw new InvalidTreeException();
+			parent.children[slot] = child;
+		}
+		
+		/**
+		 * Method that finishes the tree. The elements still waiting for their parent are linked in increasing order of
+		 * their index (a parent always has a smaller index than its children), and then the size, height and number of
+		 * elements per level of the tree are calculated in a single Level-Order traversal.
+		 * @return KTree with all the elements added to the builder. The builder can not be used afterwards.
+		 * @throws InvalidTreeException if an element has no parent in the tree.
+		 */
+		public KTree<E> build()
+		{
+			for (Integer index : pending.keySet())
+			{
+				KTree<E>.TreeNode<E> parent = byIndex.get((index - 1) / tree.kFactor);
+				if (parent == null)			// element without a parent, the tree would be invalid.
+					throw new InvalidTreeException();
+				link(parent, (index - 1) % tree.kFactor, pending.get(index));
+			}
+			
+			KTree<E> built = tree;
+			tree = null;
+			
+			if (built.root != null)
+			{
+				ArrayDeque<KTree<E>.TreeNode<E>> queue = new ArrayDeque<KTree<E>.TreeNode<E>>();
+				ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+				queue.add(built.root);
+				depths.add(0);
+				
+				while (!queue.isEmpty())
+				{
+					KTree<E>.TreeNode<E> current = queue.remove();
+					int depth = depths.remove();
+					
+					built.size++;
+					built.countLevel(depth);
+					if (depth > built.height)
+						built.height = depth;
+					
+					for (int i=0; i<built.kFactor; i++)
+					{
+						if (current.children[i] != null)
+						{
+							queue.add(current.children[i]);
+							depths.add(depth + 1);
+						}
+					}
+				}
+			}
+			
+			return built;
+		}
+	}
 	
+
 //*********************************** PART 1 METHODS **********************************************
 	
 	/**
@@ -164,20 +671,130 @@ public class KTree<E> implements TreeIterable<E>
 	}
 	
 
+	/**
+	 * Method that returns the number of elements in one level (d) of the tree. The number of elements of every level
+	 * is kept up to date while the tree is built, so no node is visited.
+	 * @param d int Level of the tree (0 is the level of the root).
+	 * @return int value with the number of elements in level (d).
+	 */
+	public int levelSize(int d)
+	{
+		if (root == null || d < 0 || d > height)
+			return 0;
+		return levelCounts[d];
+	}
+	
+	
+	/**
+	 * Method that returns the first and last index that the elements of one level (d) of the tree would have in the
+	 * array representation of the tree. Level (d) starts where a complete tree of height (d-1) ends.
+	 * @param d int Level of the tree (0 is the level of the root).
+	 * @return int array with the first index of the level in position 0 and the last one in position 1.
+	 */
+	public int[] levelRange(int d)
+	{
+		if (d < 0)
+			throw new IllegalArgumentException("negative level " + d);
+		
+		long first = 0;				// number of elements of a complete tree with all the levels above (d).
+		long levelLength = 1;		// number of positions in level (d), k to the power (d).
+		for (int i=0; i<d; i++)
+		{
+			first = first + levelLength;
+			levelLength = levelLength * kFactor;
+			if (first + levelLength > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("level " + d + " is too deep for array indexes");
+		}
+		
+		return new int[] { (int)first, (int)(first + levelLength - 1) };
+	}
+	
+	
+	/**
+	 * Method that returns an iterator over the elements of one level (d) of the tree, from left to right. Only the
+	 * nodes above level (d) are visited to reach it, and the iteration stops as soon as all the elements of the level
+	 * (according to levelSize) were found, so the levels below (d) are never visited.
+	 * @param d int Level of the tree (0 is the level of the root).
+	 * @return Iterator over the elements of level (d).
+	 */
+	public Iterator<E> levelIterator(int d)
+	{
+		ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
+		ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+		int total = levelSize(d);
+		if (total > 0)
+		{
+			stack.push(root);
+			depths.push(0);
+		}
+		
+		return new Iterator<E>()
+		{
+			int visited = 0;	// number of elements of the level returned so far.
+			
+			/**
+			 * Returns true if the level has a next element.
+			 * @return Boolean value which indicates if there is a next element in the level.
+			 */
+			public boolean hasNext()
+			{
+				return (visited < total);
+			}
+			
+			/**
+			 * Returns value held by the next node on the level, going down the tree in Pre-Order fashion and skipping
+			 * everything below level (d).
+			 * @return E Generic type value held by the next node on the level.
+			 */
+			public E next()
+			{
+				if (visited >= total)
+					throw new NullPointerException("There was no next item on tree");
+				
+				while (true)
+				{
+					TreeNode<E> current = stack.pop();
+					int depth = depths.pop();
+					
+					if (depth == d)
+					{
+						visited++;
+						return current.value;
+					}
+					
+					for (int i=kFactor-1; i>=0; i--)	// pushing children in reverse so they are visited in order.
+					{
+						if (current.children[i] != null)
+						{
+							stack.push(current.children[i]);
+							depths.push(depth + 1);
+						}
+					}
+				}
+			}
+		};
+	}
+	
+
 	/**
 	 * Method that receives a node that is the root of a subtree in the link-structure tree. Then it prints
-	 * all of its elements in the Pre-Order format using recursivity.
+	 * all of its elements in the Pre-Order format using a stack of the nodes still to be printed.
 	 * @param current Generic type tree node which is the root a subtree to be printed.
 	 */
 	private void preOrderPrint(TreeNode<E> current)
 	{
+		ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
 		if (current != null)
+			stack.push(current);
+		
+		while (!stack.isEmpty())
 		{
+			current = stack.pop();
 			System.out.println(current.value.toString() + " ");
-			for (int i=0; i<kFactor; i++)
+			for (int i=kFactor-1; i>=0; i--)	// pushing children in reverse so they are printed in order.
 			{
 				if (current.children[i] != null)
-					preOrderPrint(current.children[i]);
+					stack.push(current.children[i]);
 			}
 		}
 	}
@@ -199,81 +816,183 @@ public class KTree<E> implements TreeIterable<E>
 	
 	
 	/**
-	 * This is a recursive method that builds the array representation of a tree from the link-structure tree.
-	 * This method traverses the tree and while it is visiting every node it keeps track of which index that
-	 * node would be in if it was in the array representation of the tree and keeping that index in the variable
-	 * named (tracer).
-	 * @param current Generic tree node that represents is considered the root of a subtree which is currently
-	 * visited.
-	 * @param array Object type array of elements that is holding the elements of the tree in the array representation.
+	 * This method builds the array representation of a tree from the link-structure tree. This method traverses the
+	 * tree with a stack of the nodes still to be visited, along with the index that each node would have in the array
+	 * representation of the tree (the children of index (j) are at (j*k)+1 to (j*k)+k).
+	 * @param start Generic tree node that is the root of the tree (or subtree) to store in the array, at index 0.
+	 * @param array Object type array of elements that is holding the elements of the tree in the array representation.
+	 */
+	private void buildArray(TreeNode<E> start, Object[] array)
+	{
+		ArrayDeque<TreeNode<E>> nodes = new ArrayDeque<TreeNode<E>>();
+		int[] indexes = new int[16];		// index of each node of the stack in the array representation.
+		int pending = 0;					// number of nodes in the stack.
+		
+		if (start != null)					// an empty tree leaves the array empty.
+		{
+			nodes.push(start);
+			indexes[pending++] = 0;
+		}
+		
+		while (pending > 0)
+		{
+			TreeNode<E> current = nodes.pop();
+			int index = indexes[--pending];
+			array[index] = current.value;   // inserting the current element of the tree in the array repre. of the tree.
+			
+			for (int i=0; i<kFactor; i++)	// visiting the children of the node
+			{
+				if (current.children[i] != null)   // if there is a child node
+				{
+					if (pending == indexes.length)
+						indexes = Arrays.copyOf(indexes, pending * 2);
+					nodes.push(current.children[i]);
+					indexes[pending++] = (index * kFactor) + i+1;     // position of the child in the array
+				}
+			}
+		}
+	}
+	
+		
+	/**
+	 * Method that returns the array representation of the tree from traversing the link-structure tree. This method
+	 * calls the method buildArray to create the array tree. The array kept in the cache is copied, so it can not be
+	 * changed by the caller; an array too long to be cached is returned as it was built.
+	 * @return Object type array that holds array representation of the tree.
+	 */
+	public Object[] toArray()
+	{
+		Object[] array = (Object[])cached(ARRAY);
+		if (array != null)
+			return array.clone();		// a copy, so the cached array can not be changed by the caller.
+		
+		array = newArray();
+		return remember(ARRAY, array, array.length) ? array.clone() : array;
+	}
+	
+	
+	/**
+	 * Method that returns the array representation of the tree kept in the cache, building it with buildArray only if
+	 * the tree changed since it was stored. The array returned must not be changed.
+	 * @return Object type array that holds array representation of the tree.
+	 */
+	private Object[] cachedArray()
+	{
+		Object[] array = (Object[])cached(ARRAY);
+		if (array == null)
+		{
+			array = newArray();
+			remember(ARRAY, array, array.length);
+		}
+		return array;
+	}
+	
+	
+	/**
+	 * Helper method that builds a new array representation of the tree with buildArray, with room for a complete tree
+	 * of the same height.
+	 * @return Object type array that holds array representation of the tree.
+	 */
+	private Object[] newArray()
+	{
+		int completeSize = (pow(kFactor,height+1)-1) / (kFactor-1);
+		
+		Object[] array = new Object[completeSize];
+		buildArray(root,array);   // building the array representation starting at the root.
+		return array;
+	}
+	
+	
+	/**
+	 * Method that returns one of the traversals of the tree kept in the cache. If the tree changed since the traversals
+	 * were stored (modCount is different), all of them are discarded.
+	 * @param kind int Position of the traversal in the cache (ARRAY, LEVEL_ORDER, PRE_ORDER...).
+	 * @return Object with the traversal, or null if it is not in the cache.
 	 */
-	private void buildArray(TreeNode<E> current, Object[] array)
+	private Object cached(int kind)
 	{
-		array[tracer] = current.value;   // inserting the current element of the tree in the array repre. of the tree.
-		
-		for (int i=0; i<kFactor; i++)	// visiting the children of the node
+		if (cacheStamp != modCount)		// the tree changed, so every cached traversal is outdated.
 		{
-			if (current.children[i] != null)   // if there is a child node
-			{
-				tracer = (tracer * kFactor) + i+1;     // update the tracer through math formula to position child in the array
-				buildArray( current.children[i], array);   // recursively calling the function, now with a child node as the root.
-			}
+			Arrays.fill(caches, null);
+			cacheStamp = modCount;
 		}
 		
-		tracer = (tracer-1)/kFactor;	// updating tracer again to represent once again the current node visited.
+		SoftReference<?> reference = caches[kind];
+		return (reference == null) ? null : reference.get();
 	}
 	
-		
+	
 	/**
-	 * Method that returns the array representation of the tree from traversing the link-structure tree. This method
-	 * makes the first call to the recursive method buildArray to create the array tree.
-	 * @return Object type array that holds array representation of the tree.
+	 * Method that stores a traversal of the tree in the cache, unless it is longer than CACHE_LIMIT.
+	 * @param kind int Position of the traversal in the cache.
+	 * @param traversal Object Traversal to store.
+	 * @param length int Number of elements of the traversal.
+	 * @return boolean value that represents whether or not the traversal was stored.
 	 */
-	public Object[] toArray()
+	private boolean remember(int kind, Object traversal, int length)
 	{
-		int completeSize = (pow(kFactor,height+1)-1) / (kFactor-1);
+		if (length > CACHE_LIMIT)
+			return false;
 		
-		Object[] array = new Object[completeSize];
-		tracer = 0;         //  initializing the tracer of index of each visited node in link-structure tree.
-		
-		buildArray(root,array);   // first call to the recursive method that builds the tree.
-
-		return array;
+		caches[kind] = new SoftReference<Object>(traversal);
+		return true;
 	}
 
 	/**
 	 * Method that returns a reference to the tree node that is located in the a specific position (index) in the tree.
-	 * The method receives the reference to a node in the tree (current) and the index of the node targeted. This is
-	 * a recursive method that uses the variable (tracer) to keep track of the index of the node currently visited.
+	 * The method receives the reference to a node in the tree (current) and the index of the node targeted, and it only
+	 * follows the path from (current) to that position.
 	 * @param current Generic TreeNode that is the root of a subtree 
 	 * @param index int value thar represents the position of a node in the tree (if tree was in array representation).
 	 * @return Generic TreeNode with that is the target of our search.
 	 */
 	private TreeNode<E> getTreeNode(TreeNode<E> current, int index)
 	{
-		TreeNode<E> target = null;
-		TreeNode<E> found = null;
+		return nodeAt(current, index, false);
+	}
+	
+	
+	/**
+	 * Method that returns a reference to the tree node located at a position (index) of the subtree that has (from) as
+	 * its root, by following only the path from (from) to that node. The digits of the path are obtained from the index
+	 * itself, since in the array representation the parent of index (j) is (j-1)/k and (j) is its child number (j-1)%k.
+	 * @param from Generic TreeNode that is the root of the subtree where the index is located.
+	 * @param index int value that represents the position of a node in the subtree (if it was in array representation).
+	 * @param mirrored boolean Whether or not the children of every node are numbered in reverse order.
+	 * @return Generic TreeNode at the position (index), or null if there is no such node.
+	 */
+	private TreeNode<E> nodeAt(TreeNode<E> from, int index, boolean mirrored)
+	{
+		if (index < 0)
+			return null;
 		
-		if (tracer == index)
-			found = current;
-		else
-		{
-			for (int i=0; i<kFactor; i++)
-			{
-				if (current.children[i] != null)
-				{
-					tracer = (tracer * kFactor) + i+1;
-					target = getTreeNode( current.children[i], index );
-					if (target != null)
-						found = target;
-				}
-			}
-			
-			tracer = (tracer-1)/kFactor;
-			
-		}
-			
-		return found;
+		int[] path = pathOf(index);
+		TreeNode<E> current = from;
+		for (int d=0; d<path.length && current != null; d++)
+			current = current.children[mirrored ? kFactor-1-path[d] : path[d]];
+		
+		return current;
+	}
+	
+	
+	/**
+	 * Method that returns the child numbers that lead from the root of the tree to the position (index), using that
+	 * in the array representation the parent of index (j) is (j-1)/k and (j) is its child number (j-1)%k.
+	 * @param index int value that represents the position of a node in the tree (not negative).
+	 * @return int array with one child number per level, from the root down to the position (index).
+	 */
+	private int[] pathOf(int index)
+	{
+		int depth = 0;
+		for (int j=index; j>0; j=(j-1)/kFactor)		// counting the digits of the path to the node.
+			depth++;
+		
+		int[] path = new int[depth];
+		int p = depth - 1;
+		for (int j=index; j>0; j=(j-1)/kFactor)		// obtaining the digits from the bottom of the path to the top.
+			path[p--] = (j-1) % kFactor;
+		
+		return path;
 	}
 	
 	
@@ -284,7 +1003,6 @@ public class KTree<E> implements TreeIterable<E>
 	 */
 	public E get(int i)
 	{
-		tracer = 0;			// initializing tracer to position 0 (root of the tree)
 		E element = null;
 		
 		TreeNode<E> target = getTreeNode(root, i);  // get the tree node at index i from the link-structure tree.
@@ -310,7 +1028,7 @@ public class KTree<E> implements TreeIterable<E>
 		TreeNode<E> target = getTreeNode(root, i);
 
 		boolean hasChildren = false;          //
-		for (int j=0; j<kFactor; j++)         //  Routine to check if Node has children
+		for (int j=0; target != null && j<kFactor; j++)   //  Routine to check if Node has children
 			if (target.children[j] != null)   //
 				hasChildren = true;           //
 		
@@ -325,14 +1043,12 @@ public class KTree<E> implements TreeIterable<E>
 				E[] newArrayTree = (E[])toArray();   // turn the tree into an array (temporarily)
 				newArrayTree[i] = null;              // turn that desired index of the tree into a null (delete element)
 				
-				height = 0;									//
-				size = 1;                               	//
-				root = new TreeNode<E>(newArrayTree[0]);	//  re-build the tree.
-				build(root, 0, newArrayTree);				//
+				rebuild(newArrayTree);	//  re-build the tree.
 			}
 			else   //  if we are deleting the root
 			{
 				height = size = 0;
+				levelCounts = new int[1];
 				root = null;
 			}
 		}
@@ -377,7 +1093,11 @@ public class KTree<E> implements TreeIterable<E>
 		boolean success = true;
 		
 		if ((root == null) && (i == 0))   // if the tree is empty at the moment and we are trying to insert at root
+		{
 			root = new TreeNode<E>(v);
+			size = 1;
+			levelCounts[0] = 1;
+		}
 		
 		else
 		{	
@@ -390,10 +1110,7 @@ public class KTree<E> implements TreeIterable<E>
 				if (newArrayTree[possibleParentPos] != null)
 				{
 					newArrayTree[i] = v;						//  add the new element and
-					height = 0;									//
-					size = 1;                               	//
-					root = new TreeNode<E>(newArrayTree[0]);	//  re-build the tree.
-					build(root, 0, newArrayTree);				//
+					rebuild(newArrayTree);	//  re-build the tree.
 				}
 
 				else
@@ -409,10 +1126,7 @@ public class KTree<E> implements TreeIterable<E>
 						newArrayTree = expandArrayTree(newArrayTree); 	//  expand size of the array of the tree
 						
 						newArrayTree[i] = v;							//  add the new element and
-						height = 0;										//
-						size = 1;                               		//
-						root = new TreeNode<E>(newArrayTree[0]);		//  re-build the tree.
-						build(root, 0, newArrayTree);					//
+						rebuild(newArrayTree);		//  re-build the tree.
 						
 					}
 					else
@@ -435,7 +1149,6 @@ public class KTree<E> implements TreeIterable<E>
 	 */
 	public boolean set(int i, E v)
 	{
-		tracer = 0;
 		boolean success = true;
 		TreeNode<E> target = getTreeNode(root, i);
 		
@@ -446,14 +1159,523 @@ public class KTree<E> implements TreeIterable<E>
 			success = deleteLeafByIndex(i);
 
 		else if (target != null)   // if element at index (i) is part of the tree
+		{
+			if (compressed)			// the node may be shared, so the path to it is copied first.
+				target = unsharedNodeAt(i);
 			target.value = v;
+			invalidateHashes(i);
+		}
 	
 		else    				   // if (i) is a position on the tree that does not exist yet, try to add as a leaf.
 			success = addLeafByIndex(i,v);
 		
-		return success;
-	}
-	
+		modCount++;				// the cached traversals of the tree are outdated now.
+		return success;
+	}	
+	
+	/**
+	 * Method that finds the nodes at many positions of the tree in a single traversal. The positions are sorted by their
+	 * path from the root (which is the Pre-Order of the positions), so every position only walks down the part of its
+	 * path that it does not share with the previous one.
+	 * @param indices int array with the positions of the nodes to find.
+	 * @return TreeNode array with the node at each position (aligned with indices), or null where there is no node.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private TreeNode<E>[] nodesAt(int[] indices)
+	{
+		TreeNode<E>[] found = new TreeNode[indices.length];
+		int[][] paths = new int[indices.length][];
+		Integer[] order = new Integer[indices.length];
+		int count = 0;
+		
+		for (int j=0; j<indices.length; j++)		// negative positions are never part of the tree.
+		{
+			if (indices[j] >= 0)
+			{
+				paths[j] = pathOf(indices[j]);
+				order[count++] = j;
+			}
+		}
+		
+		Arrays.sort(order, 0, count, (a, b) -> comparePaths(paths[a], paths[b]));
+		
+		TreeNode<E>[] onPath = new TreeNode[height + 2];	// nodes on the path of the previous position (onPath[0] is the root).
+		int[] previous = new int[0];						// path of the previous position.
+		int reached = 0;									// number of nodes of (previous) found in the tree, root included.
+		if (root != null)
+		{
+			onPath[0] = root;
+			reached = 1;
+		}
+		
+		for (int n=0; n<count; n++)
+		{
+			int[] path = paths[order[n]];
+			
+			int shared = 0;				// levels shared with the previous path whose nodes are already in (onPath).
+			while (shared < path.length && shared < previous.length && shared + 1 < reached
+					&& path[shared] == previous[shared])
+				shared++;
+			
+			int depth = Math.min(shared + 1, reached);		// number of nodes of this path already found.
+			while (depth > 0 && depth <= path.length)		// walking down only the part of the path not shared.
+			{
+				TreeNode<E> next = onPath[depth-1].children[path[depth-1]];
+				if (next == null)
+					break;
+				onPath[depth++] = next;
+			}
+			
+			reached = depth;
+			previous = path;
+			if (depth == path.length + 1)
+				found[order[n]] = onPath[path.length];
+		}
+		
+		return found;
+	}
+	
+	
+	/**
+	 * Helper method that compares two paths from the root in Pre-Order: child numbers are compared level by level and
+	 * a path comes before the paths that continue it.
+	 * @param a int array First path.
+	 * @param b int array Second path.
+	 * @return int value negative, zero or positive if (a) comes before, at the same place or after (b).
+	 */
+	private static int comparePaths(int[] a, int[] b)
+	{
+		for (int d=0; d<a.length && d<b.length; d++)
+			if (a[d] != b[d])
+				return a[d] - b[d];
+		return a.length - b.length;
+	}
+	
+	
+	/**
+	 * Method that returns the data of the nodes at many positions of the tree, visiting every node shared by their
+	 * paths from the root only once.
+	 * @param indices int array with the positions of the nodes.
+	 * @param out Generic array where the data of the node at indices[j] is stored at out[j] (null if there is no node).
+	 * @return int value with the number of positions where there was a node.
+	 */
+	public int getAll(int[] indices, E[] out)
+	{
+		TreeNode<E>[] nodes = nodesAt(indices);
+		int found = 0;
+		
+		for (int j=0; j<indices.length; j++)
+		{
+			if (nodes[j] != null)
+			{
+				out[j] = nodes[j].value;
+				found++;
+			}
+			else
+				out[j] = null;
+		}
+		
+		return found;
+	}
+	
+	
+	/**
+	 * Method that sets the values of many positions of the tree, with the same result as calling set(indices[j],
+	 * values[j]) in order. The nodes that already exist are found in a single traversal and updated in place; once a
+	 * value adds or deletes an element (which rebuilds the tree), the remaining positions are set one by one. Positions
+	 * of a compressed tree are also set one by one, since the node found may be shared with other positions.
+	 * @param indices int array with the positions of the nodes.
+	 * @param values Generic array with the value for each position (null to delete the element).
+	 * @return boolean value that represents whether or not every setting was successful.
+	 */
+	public boolean setAll(int[] indices, E[] values)
+	{
+		TreeNode<E>[] nodes = nodesAt(indices);
+		boolean success = true;
+		boolean rebuilt = false;		// whether or not the nodes found before may not be part of the tree anymore.
+		
+		for (int j=0; j<indices.length; j++)
+		{
+			if (!rebuilt && !compressed && nodes[j] != null && values[j] != null)
+			{
+				nodes[j].value = values[j];
+				invalidateHashes(indices[j]);
+				modCount++;
+			}
+			else
+			{
+				rebuilt = rebuilt || values[j] == null || nodes[j] == null;
+				success = set(indices[j], values[j]) && success;
+			}
+		}
+		
+		return success;
+	}
+
+	
+	
+	/**
+	 * This is a nested class that identifies a subtree while compressing the tree: two subtrees are identical when their
+	 * roots hold equal values and their children are the very same nodes (children are compressed before their parent,
+	 * so identical children have already become the same node).
+	 */
+	private static class SubtreeKey
+	{
+		final Object value;			// value of the root of the subtree.
+		final Object[] children;	// children of the root of the subtree, already compressed.
+		final int hash;				// hash of the value and the identities of the children.
+		
+		/**
+		 * Constructor that initializes the key of a subtree and its hash.
+		 */
+		SubtreeKey(Object value, Object[] children)
+		{
+			this.value = value;
+			this.children = children;
+			
+			int h = Objects.hashCode(value);
+			for (int i=0; i<children.length; i++)
+				h = 31 * h + System.identityHashCode(children[i]);
+			hash = h;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object other)
+		{
+			if (!(other instanceof SubtreeKey))
+				return false;
+			
+			SubtreeKey key = (SubtreeKey)other;
+			if (hash != key.hash || !Objects.equals(value, key.value))
+				return false;
+			for (int i=0; i<children.length; i++)
+				if (children[i] != key.children[i])		// children are compared by identity.
+					return false;
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * Method that compresses the tree by storing every group of identical subtrees only once: subtrees with the same
+	 * values and the same shape become a single subtree shared by all their parents, so the tree is stored as a directed
+	 * acyclic graph. Subtrees are compared from the leaves up, so each node is looked up only once in a hash table.
+	 * Reading the tree works as before, since every position is still reached by following its path from the root, and
+	 * set() copies the shared nodes on the path to a position before changing it. Adding or deleting an element
+	 * rebuilds the tree without sharing any node, until it is compressed again.
+	 * @return int value with the number of nodes that are not needed anymore.
+	 */
+	public int compress()
+	{
+		if (root == null)
+			return 0;
+		
+		IdentityHashMap<TreeNode<E>, TreeNode<E>> canonical = new IdentityHashMap<TreeNode<E>, TreeNode<E>>();
+		HashMap<SubtreeKey, TreeNode<E>> interned = new HashMap<SubtreeKey, TreeNode<E>>();
+		ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
+		stack.push(root);
+		
+		while (!stack.isEmpty())		// Post-Order traversal, a node is compressed once all its children are.
+		{
+			TreeNode<E> current = stack.peek();
+			boolean ready = true;
+			for (int i=0; i<kFactor; i++)
+			{
+				TreeNode<E> child = current.children[i];
+				if (child != null && !canonical.containsKey(child))
+				{
+					stack.push(child);
+					ready = false;
+				}
+			}
+			if (!ready)
+				continue;
+			
+			stack.pop();
+			if (canonical.containsKey(current))		// node already shared by another parent, compressed before.
+				continue;
+			
+			for (int i=0; i<kFactor; i++)
+				if (current.children[i] != null)
+					current.children[i] = canonical.get(current.children[i]);
+			
+			TreeNode<E> existing = interned.putIfAbsent(new SubtreeKey(current.value, current.children), current);
+			if (existing != null)		// an identical subtree was found before, it is shared from now on.
+			{
+				existing.shared = true;
+				canonical.put(current, existing);
+			}
+			else
+				canonical.put(current, current);
+		}
+		
+		root = canonical.get(root);
+		int saved = canonical.size() - interned.size();
+		compressed = compressed || saved > 0;
+		return saved;
+	}
+	
+	
+	/**
+	 * Helper method that returns the node at a position of a compressed tree after making sure it is not shared: the
+	 * nodes on the path to the position are copied from the first one that may be shared, and the copies are linked
+	 * to their parents. The children of a copy are shared by the copy and the original node, so they are marked.
+	 * @param index int value that represents the position of a node in the tree.
+	 * @return Generic TreeNode at the position (index) that is only reached by its path, or null if there is no node.
+	 */
+	private TreeNode<E> unsharedNodeAt(int index)
+	{
+		if (index < 0 || getTreeNode(root, index) == null)
+			return null;
+		
+		int[] path = pathOf(index);
+		TreeNode<E> parent = null;
+		TreeNode<E> current = root;
+		boolean copying = false;		// whether or not a shared node has been found on the path.
+		
+		for (int d=0; d<=path.length; d++)
+		{
+			copying = copying || current.shared;
+			if (copying)
+			{
+				TreeNode<E> copy = new TreeNode<E>(current.value);
+				for (int i=0; i<kFactor; i++)
+				{
+					copy.children[i] = current.children[i];
+					if (copy.children[i] != null)
+						copy.children[i].shared = true;
+				}
+				
+				if (parent == null)
+					root = copy;
+				else
+					parent.children[path[d-1]] = copy;
+				current = copy;
+			}
+			
+			parent = current;
+			if (d < path.length)
+				current = current.children[path[d]];
+		}
+		
+		return current;
+	}
+	
+	
+	/**
+	 * Helper method that marks the structural hashes of the nodes on the path to a position as outdated, after the
+	 * value at that position changed. They are calculated again the next time they are needed.
+	 * @param index int value that represents the position of the node that changed.
+	 */
+	private void invalidateHashes(int index)
+	{
+		int[] path = pathOf(index);
+		TreeNode<E> current = root;
+		for (int d=0; current != null; d++)
+		{
+			current.hash = 0;
+			current = (d < path.length) ? current.children[path[d]] : null;
+		}
+	}
+	
+	
+	/**
+	 * Helper method that returns the structural hash of a subtree, calculating the hashes that are outdated. The hash
+	 * of a node mixes the hash code of its value with the hashes of its children in order (absent children included), so
+	 * it is the same for subtrees with the same shape and equal values (Merkle-style). Only the nodes whose hash is
+	 * outdated are visited: after a set(), only the nodes on the path to the position.
+	 * @param node TreeNode that is the root of the subtree (not null).
+	 * @param k int K factor of the tree.
+	 * @return long value with the structural hash of the subtree (never 0).
+	 */
+	private static long hashOf(KTree<?>.TreeNode<?> node, int k)
+	{
+		if (node.hash != 0)
+			return node.hash;
+		
+		ArrayDeque<KTree<?>.TreeNode<?>> stack = new ArrayDeque<KTree<?>.TreeNode<?>>();
+		stack.push(node);
+		
+		while (!stack.isEmpty())		// Post-Order traversal of the nodes whose hash is outdated.
+		{
+			KTree<?>.TreeNode<?> current = stack.peek();
+			boolean ready = true;
+			for (int i=0; i<k; i++)
+			{
+				KTree<?>.TreeNode<?> child = current.children[i];
+				if (child != null && child.hash == 0)
+				{
+					stack.push(child);
+					ready = false;
+				}
+			}
+			if (!ready)
+				continue;
+			
+			stack.pop();
+			long h = mix(Objects.hashCode(current.value));
+			for (int i=0; i<k; i++)
+			{
+				KTree<?>.TreeNode<?> child = current.children[i];
+				h = h * 0x9E3779B97F4A7C15L + (child == null ? 0x632BE59BD9B4E019L : child.hash);
+			}
+			h = mix(h);
+			current.hash = (h == 0) ? 1 : h;		// 0 is kept to mark outdated hashes.
+		}
+		
+		return node.hash;
+	}
+	
+	
+	/**
+	 * Helper method that mixes the bits of a value, so every bit of the result depends on every bit of the value.
+	 * @param h long Value to mix.
+	 * @return long value with the bits mixed.
+	 */
+	private static long mix(long h)
+	{
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+	
+	
+	/**
+	 * Method that returns the structural hash of the whole tree, which only depends on its k factor, its shape and its
+	 * values. Two trees with different hashes are different, so it can be used to know whether a copy of a tree has
+	 * changed without comparing them. After a set(), only the hashes on the path to the position are calculated again.
+	 * @return long value with the structural hash of the tree.
+	 */
+	public long structuralHash()
+	{
+		return (root == null) ? kFactor : mix(kFactor + 31 * hashOf(root, kFactor));
+	}
+	
+	
+	/**
+	 * Method that returns the hash code of the tree, taken from its structural hash.
+	 * @return int value with the hash code of the tree.
+	 */
+	@Override
+	public int hashCode()
+	{
+		long h = structuralHash();
+		return (int)(h ^ (h >>> 32));
+	}
+	
+	
+	/**
+	 * Method that returns whether or not another object is a tree with the same k factor, shape and values. Trees with
+	 * different sizes or structural hashes are told apart right away, without looking at their nodes.
+	 * @param other Object to compare with the tree.
+	 * @return boolean value that represents whether or not the trees are equal.
+	 */
+	@Override
+	public boolean equals(Object other)
+	{
+		if (this == other)
+			return true;
+		if (!(other instanceof KTree))
+			return false;
+		
+		KTree<?> tree = (KTree<?>)other;
+		if (kFactor != tree.kFactor || size != tree.size || structuralHash() != tree.structuralHash())
+			return false;
+		if (root == null)
+			return tree.root == null;
+		
+		ArrayDeque<KTree<?>.TreeNode<?>> pairs = new ArrayDeque<KTree<?>.TreeNode<?>>();	// nodes compared in pairs.
+		pairs.push(root);
+		pairs.push(tree.root);
+		while (!pairs.isEmpty())
+		{
+			KTree<?>.TreeNode<?> b = pairs.pop();
+			KTree<?>.TreeNode<?> a = pairs.pop();
+			if (a == b)				// shared node, it is the same subtree.
+				continue;
+			if (a.hash != b.hash || !Objects.equals(a.value, b.value))
+				return false;
+			
+			for (int i=0; i<kFactor; i++)
+			{
+				if ((a.children[i] == null) != (b.children[i] == null))
+					return false;
+				if (a.children[i] != null)
+				{
+					pairs.push(a.children[i]);
+					pairs.push(b.children[i]);
+				}
+			}
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Method that returns the positions where this tree and another tree with the same k factor are different: the
+	 * positions whose values are not equal and the positions that are part of only one of the trees. Only the subtrees
+	 * whose structural hashes are different are examined, so the cost depends on the number of differences and not
+	 * on the size of the trees (subtrees with the same hash are taken as equal).
+	 * @param other KTree<E> Tree to compare with this tree.
+	 * @return int array with the positions that are different, in increasing order (-1 for positions too deep to be
+	 * represented by an int).
+	 * @throws InvalidKException if the trees have different k factors.
+	 */
+	public int[] diff(KTree<E> other)
+	{
+		if (kFactor != other.kFactor)
+			throw new InvalidKException();
+		
+		int[] found = new int[16];
+		int count = 0;
+		
+		ArrayDeque<TreeNode<E>> pairs = new ArrayDeque<TreeNode<E>>();	// nodes compared in pairs (with a marker for null).
+		ArrayDeque<Long> positions = new ArrayDeque<Long>();
+		TreeNode<E> none = new TreeNode<E>(null);		// marker for a node that does not exist.
+		pairs.push(root == null ? none : root);
+		pairs.push(other.root == null ? none : other.root);
+		positions.push(0L);
+		
+		while (!pairs.isEmpty())
+		{
+			TreeNode<E> b = pairs.pop();
+			TreeNode<E> a = pairs.pop();
+			long position = positions.pop();
+			
+			if (a == b || (a != none && b != none && hashOf(a, kFactor) == hashOf(b, kFactor)))	// same subtree.
+				continue;
+			
+			if (a == none || b == none || !Objects.equals(a.value, b.value))
+			{
+				if (count == found.length)
+					found = Arrays.copyOf(found, count * 2);
+				found[count++] = (position <= Integer.MAX_VALUE) ? (int)position : -1;
+			}
+			
+			for (int i=0; i<kFactor; i++)
+			{
+				TreeNode<E> childA = (a == none) ? null : a.children[i];
+				TreeNode<E> childB = (b == none) ? null : b.children[i];
+				if (childA != null || childB != null)
+				{
+					pairs.push(childA == null ? none : childA);
+					pairs.push(childB == null ? none : childB);
+					positions.push((position < 0 || position > Integer.MAX_VALUE) ? -1L : position * kFactor + i + 1);
+				}
+			}
+		}
+		
+		found = Arrays.copyOf(found, count);
+		Arrays.sort(found);
+		return found;
+	}	
 	
 	
 //***************************************** PART 2 METHODS ***********************************************
@@ -465,23 +1687,23 @@ public class KTree<E> implements TreeIterable<E>
 	 */
 	public String toString()
 	{
-		String output = "";
-		int exponent = 0;
-		int levelElementsAccum = 0;			// total number of elements of a tree with a certain height (exponent).
-		Object[] arrayTree = toArray();		// getting the array representation of the tree.
+		String output = (String)cached(STRING);
+		if (output != null)					// the tree did not change since the last call.
+			return output;
+		
+		output = "";
+		Object[] arrayTree = cachedArray();	// getting the array representation of the tree.
 		
-		for (int i=0; i<arrayTree.length; i++)  // building the string (output)
+		for (int d=0; d<=height; d++)		// building the string (output), one level per line.
 		{
-			output = output + arrayTree[i] + " ";
-
-			if (i == levelElementsAccum)    // if elements read so far are same as elements of a tree of height equal to exponent
-			{
-				output = output + "\n";		// then add a change of line.
-				exponent++;					// increase the height (exponent)
-				levelElementsAccum = levelElementsAccum + pow(kFactor,exponent);	// increase elements to fill tree of new height.
-			}
+			int[] range = levelRange(d);
+			for (int i=range[0]; i<=range[1]; i++)
+				output = output + arrayTree[i] + " ";
+			
+			output = output + "\n";			// adding a change of line at the end of every level.
 		}		
 
+		remember(STRING, output, output.length());
 		return output;
 	}
 	
@@ -492,8 +1714,12 @@ public class KTree<E> implements TreeIterable<E>
 	 */
 	public String toStringLevelOrder()
 	{
-		String output = "";
-		Object[] arrayTree = toArray();		// obtaining the array representation of the tree
+		String output = (String)cached(STRING_LEVEL_ORDER);
+		if (output != null)					// the tree did not change since the last call.
+			return output;
+		
+		output = "";
+		Object[] arrayTree = cachedArray();	// obtaining the array representation of the tree
 		
 		for (int i=0; i<arrayTree.length; i++)	// copying the data of each node into the string (output).
 		{
@@ -501,79 +1727,83 @@ public class KTree<E> implements TreeIterable<E>
 				output = output + arrayTree[i] + " ";
 		}
 		
+		remember(STRING_LEVEL_ORDER, output, output.length());
 		return output;
 	}
 
 	
 	/**
-	 * Helper recursive method that builds the string representation of the tree while traversing it in Pre-Order fashion.
-	 * @param subTreeRoot TreeNode Current tree node visited in the Pre-Order fashion, which is considered the root of 
-	 * a new subtree to be also traversed (recursively).
+	 * Helper method that builds the string representation of the tree while traversing it in Pre-Order fashion.
+	 * @param subTreeRoot TreeNode Root of the subtree to traverse in Pre-Order.
 	 * @return String with the values of each tree node for which subTreeRoot is the root
 	 */
 	private String buildStringPreOrder(TreeNode<E> subTreeRoot)
 	{
-		String output = "";
+		StringBuilder output = new StringBuilder();
+		Object[] array = new Object[size];
+		int count = buildPreOrderArray(subTreeRoot, array);
 		
-		if (subTreeRoot != null)
-		{	
-			output = output + subTreeRoot.value + " ";	// adding the current node to the string (output).
-			
-			for (int i=0; i<kFactor; i++)				// visiting every child of the current node to traverse in pre-order.
-				output = output + buildStringPreOrder(subTreeRoot.children[i]);
-		}
-
-		return output;
+		for (int i=0; i<count; i++)		// adding every node to the string (output) in Pre-Order.
+			output.append(array[i]).append(" ");
+		
+		return output.toString();
 	}
 	
 	
 	/**
 	 * Method that builds the String with the values of each node of the tree by traversing it in Pre-order fashion.
-	 * This is done by making the first call to the recursive method buildStringPreOrder().
+	 * This is done by calling buildStringPreOrder(), which visits the nodes with an explicit stack (buildPreOrderArray)
+	 * instead of recursion. The String is cached (unless it is longer than CACHE_LIMIT) until the tree changes.
 	 * @return String with the representation of the tree when traversing it in the Pre-Order fashion.
 	 */
 	public String toStringPreOrder()
 	{
-		String output = "";
+		String output = (String)cached(STRING_PRE_ORDER);
 		
-		output = buildStringPreOrder(root);
+		if (output == null)					// the tree changed since the last call.
+		{
+			output = buildStringPreOrder(root);
+			remember(STRING_PRE_ORDER, output, output.length());
+		}
 		
 		return output;
 	}
 
 	
 	/**
-	 * Helper recursive method that builds the string representation of the tree while traversing it in Post-Order fashion.
-	 * @param subTreeRoot TreeNode Current tree node visited in the Post-Order fashion, which is considered the root of 
-	 * a new subtree to be also traversed (recursively).
+	 * Helper method that builds the string representation of the tree while traversing it in Post-Order fashion.
+	 * @param subTreeRoot TreeNode Root of the subtree to traverse in Post-Order.
 	 * @return String with the values of each tree node for which subTreeRoot is the root
 	 */
 	private String buildStringPostOrder(TreeNode<E> subTreeRoot)
 	{
-		String output = "";
+		StringBuilder output = new StringBuilder();
+		Object[] array = new Object[size];
+		int count = buildPostOrderArray(subTreeRoot, array);
 		
-		if (subTreeRoot != null)
-		{	
-			for (int i=0; i<kFactor; i++)		// visiting every child of the current node to traverse in Post-Order.
-				output = output + buildStringPostOrder(subTreeRoot.children[i]);
-
-			output = output + subTreeRoot.value + " ";		// adding the current node to the string (output).
-		}
-
-		return output;
+		for (int i=0; i<count; i++)		// adding every node to the string (output) in Post-Order.
+			output.append(array[i]).append(" ");
+		
+		return output.toString();
 	}
 
 	
 	/**
 	 * Method that builds the String with the values of each node of the tree by traversing it in Post-Order fashion.
-	 * This is done by making the first call to the recursive method buildStringPreOrder().
+	 * This is done by calling buildStringPostOrder(), which visits the nodes with an explicit stack
+	 * (buildPostOrderArray) instead of recursion. The String is cached (unless it is longer than CACHE_LIMIT) until
+	 * the tree changes.
 	 * @return String with the representation of the tree when traversing it in the Post-Order fashion.
 	 */
 	public String toStringPostOrder()
 	{
-		String output = "";
+		String output = (String)cached(STRING_POST_ORDER);
 		
-		output = buildStringPostOrder(root);
+		if (output == null)					// the tree changed since the last call.
+		{
+			output = buildStringPostOrder(root);
+			remember(STRING_POST_ORDER, output, output.length());
+		}
 		
 		return output;
 	}
@@ -600,6 +1830,24 @@ public class KTree<E> implements TreeIterable<E>
 	}
 	
 	
+	/**
+	 * Method that returns an array with the elements of the tree in Level-Order, which is the array representation of
+	 * the tree without the null nodes. The array is kept in the cache while the tree does not change, so it must not
+	 * be changed.
+	 * @return Object array with the elements of the tree in Level-Order.
+	 */
+	private Object[] toLevelOrderArray()
+	{
+		Object[] array = (Object[])cached(LEVEL_ORDER);
+		if (array == null)					// the tree changed since the array was stored in the cache.
+		{
+			array = trim(cachedArray());
+			remember(LEVEL_ORDER, array, size);
+		}
+		return array;
+	}
+	
+	
 	/**
 	 * This overrides the getLevelOrderIterator of the interface (TreeIterable) that will traverse the tree in Level 
 	 * Order fashion.  This method will utilize the array Level Order array representation of the tree created by the 
@@ -615,7 +1863,7 @@ public class KTree<E> implements TreeIterable<E>
 		return new Iterator<E>()
 		{
 			int current = 0;   // index to first element in Level Order Traversal.
-			Object[] levelOrderArray = trim(toArray());
+			Object[] levelOrderArray = toLevelOrderArray();
 			/**
 			 * Returns true if the tree has a next element.
 			 * @return Boolean value which indicates if there is a next element in tree.
@@ -643,34 +1891,47 @@ public class KTree<E> implements TreeIterable<E>
 	
 	
 	/**
-	 * Helper recursive method that builds the array representation of the tree when traversed in Pre-Order fashion.
-	 * @param subTreeRoot Generic TreeNode Current tree node visited which in turn will be traversed in Pre-Order by
-	 * calling itself recursively while building the array representation or the tree.
+	 * Helper method that builds the array representation of the tree when traversed in Pre-Order fashion. The nodes
+	 * still to be visited are kept in a stack, with the children pushed in reverse so they are removed in order.
+	 * @param subTreeRoot Generic TreeNode Root of the subtree to traverse in Pre-Order.
 	 * @param array Object array type that holds the array that is being built by while traversing the tree.
+	 * @return int value with the number of elements stored in the array.
 	 */
-	private void buildPreOrderArray(TreeNode<E> subTreeRoot, Object[] array)
+	private int buildPreOrderArray(TreeNode<E> subTreeRoot, Object[] array)
 	{
+		int next = 0;
+		ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
 		if (subTreeRoot != null)
-		{	
-			array[tracer++] = subTreeRoot.value;
+			stack.push(subTreeRoot);
+		
+		while (!stack.isEmpty())
+		{
+			TreeNode<E> current = stack.pop();
+			array[next++] = current.value;
 			
-			for (int i=0; i<kFactor; i++)
-				buildPreOrderArray(subTreeRoot.children[i], array);
+			for (int i=kFactor-1; i>=0; i--)
+				if (current.children[i] != null)
+					stack.push(current.children[i]);
 		}
-
+		
+		return next;
 	}
 	
 	
 	/**
 	 * Method that returns an array representation of the tree when traversed in Pre-Order fashion.
-	 * This method makes the first call to the recursive helper method buildPreOrderArray.
-	 * @return
+	 * This method calls the helper method buildPreOrderArray.
+	 * @return Object array with the elements of the tree in Pre-Order.
 	 */
 	private Object[] toPreOrderArray()
 	{
-		Object[] array = new Object[size];
-		tracer = 0;			// initializing the tracer variable for the building of the array.
-		buildPreOrderArray(root, array);
+		Object[] array = (Object[])cached(PRE_ORDER);
+		if (array == null)					// the tree changed since the array was stored in the cache.
+		{
+			array = new Object[size];
+			buildPreOrderArray(root, array);
+			remember(PRE_ORDER, array, size);
+		}
 		return array;
 	}
 
@@ -719,34 +1980,52 @@ public class KTree<E> implements TreeIterable<E>
 
 
 	/**
-	 * Helper recursive method that builds the array representation of the tree when traversed in Post-Order fashion.
-	 * @param subTreeRoot Generic TreeNode Current tree node visited which in turn will be traversed in Post-Order by
-	 * calling itself recursively while building the array representation or the tree.
+	 * Helper method that builds the array representation of the tree when traversed in Post-Order fashion. The
+	 * Post-Order traversal is the reverse of visiting every node before its children from right to left, so the
+	 * nodes are taken from a stack in that order and stored from the end of the array towards its beginning.
+	 * @param subTreeRoot Generic TreeNode Root of the subtree to traverse in Post-Order.
 	 * @param array Object array type that holds the array that is being built by while traversing the tree.
+	 * @return int value with the number of elements stored in the array.
 	 */
-	private void buildPostOrderArray(TreeNode<E> subTreeRoot, Object[] array)
+	private int buildPostOrderArray(TreeNode<E> subTreeRoot, Object[] array)
 	{
+		ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
+		ArrayDeque<TreeNode<E>> reversed = new ArrayDeque<TreeNode<E>>();	// nodes in reverse Post-Order.
 		if (subTreeRoot != null)
-		{	
+			stack.push(subTreeRoot);
+		
+		while (!stack.isEmpty())
+		{
+			TreeNode<E> current = stack.pop();
+			reversed.push(current);
+			
 			for (int i=0; i<kFactor; i++)
-				buildPostOrderArray(subTreeRoot.children[i], array);
-
-			array[tracer++] = subTreeRoot.value;
+				if (current.children[i] != null)
+					stack.push(current.children[i]);
 		}
-
+		
+		int next = 0;
+		while (!reversed.isEmpty())
+			array[next++] = reversed.pop().value;
+		
+		return next;
 	}
 	
 
 	/**
 	 * Method that returns an array representation of the tree when traversed in Post-Order fashion.
-	 * This method makes the first call to the recursive helper method buildPreOrderArray.
-	 * @return
+	 * This method calls the helper method buildPostOrderArray.
+	 * @return Object array with the elements of the tree in Post-Order.
 	 */
 	private Object[] toPostOrderArray()
 	{
-		Object[] array = new Object[size];
-		tracer = 0;				// initializing the tracer variable for the building of the array.
-		buildPostOrderArray(root, array);
+		Object[] array = (Object[])cached(POST_ORDER);
+		if (array == null)					// the tree changed since the array was stored in the cache.
+		{
+			array = new Object[size];
+			buildPostOrderArray(root, array);
+			remember(POST_ORDER, array, size);
+		}
 		return array;
 	}
 	
@@ -825,25 +2104,224 @@ public class KTree<E> implements TreeIterable<E>
 	 */
 	public static String decode(KTree<String> tree, String codedMessage)
 	{
-		String message = "";
-		int move = Character.getNumericValue(codedMessage.charAt(0)); // gets numeric value represented by a char of codedMessage. 
-		KTree<String>.TreeNode<String> current = tree.root;
+		return decode(tree.root, tree.kFactor, false, codedMessage);
+	}
+	
+	
+	/**
+	 * Method that decodes a message with a view of a code tree (a subtree or a mirror image of a tree) as the decoding
+	 * structure, without copying the nodes of the tree.
+	 * @param view KTree<String>.TreeView Holds the decoding structure.
+	 * @param codedMessage String Coded message about to be decoded.
+	 * @return String with the message decoded with the help of the view.
+	 */
+	public static String decode(KTree<String>.TreeView view, String codedMessage)
+	{
+		return decode(view.viewRoot(), view.getK(), view.mirrored, codedMessage);
+	}
+	
+	
+	/**
+	 * Helper method that decodes a message walking down the tree that starts at (root). When the tree is mirrored
+	 * every digit (d) of the message moves to the child (k-1-d) instead.
+	 * @param root TreeNode<String> Root of the decoding structure.
+	 * @param kFactor int K factor of the tree.
+	 * @param mirrored boolean Whether or not the children of every node are visited in reverse order.
+	 * @param codedMessage String Coded message about to be decoded.
+	 * @return String with the message decoded with the help of the tree.
+	 */
+	private static String decode(KTree<String>.TreeNode<String> root, int kFactor, boolean mirrored, String codedMessage)
+	{
+		StringBuilder message = new StringBuilder();	// appending each leaf, instead of copying the whole message every time.
+		byte[] digits = new byte[codedMessage.length()];
+		DigitParser.toDigits(codedMessage, digits);		// converts every char of codedMessage into its numeric value.
+		
+		int move = digits[0]; 			// gets numeric value represented by the first char of codedMessage. 
+		KTree<String>.TreeNode<String> current = root;
 		
 		for (int i=1; i<codedMessage.length(); i++)  // walks through every character of the codedMessage
 		{
-			current = current.children[move];    // moves down the tree depending on the current character of codedMessage.
+			current = current.children[mirrored ? kFactor-1-move : move];    // moves down the tree depending on the current character of codedMessage.
+			
+			if (!hasChildren(current, kFactor))		// if current node visited is a leaf
+			{
+				message.append(current.value);			// add leaf value to the decoded message
+				current = root;							// goes back to the root of the tree.
+			}
+			move = digits[i]; 			// gets numeric value represented by a char of codedMessage.
+		}
+		
+		current = current.children[mirrored ? kFactor-1-move : move];		// moves to the last leaf pointed by the codedMessage
+		message.append(current.value);			// adds the value of the last leaf visited by this method.
+		return message.toString();
+	}
+	
+
+	static final int MAX_STREAM_K = 1 << 16;		// largest k factor written or read by write() and read().
+	static final int MAX_STREAM_VALUE = 1 << 24;	// longest value in bytes written or read by write() and read().
+	
+	/**
+	 * Method that writes a tree of Strings (such as a code tree) in a compact binary form: the k factor and size of the
+	 * tree, followed by every node in Pre-Order. Each node is written as its value (a flag for null values, then the
+	 * length and the UTF-8 bytes of the value) and one bit per child telling whether or not that child exists.
+	 * @param tree KTree<String> Tree to write.
+	 * @param out DataOutput where the tree is written.
+	 * @throws IOException if the tree can not be written, or its k factor or a value is too large to be read back.
+	 */
+	public static void write(KTree<String> tree, DataOutput out) throws IOException
+	{
+		int k = tree.kFactor;
+		if (k > MAX_STREAM_K)
+			throw new IOException("k factor too large to write: " + k);
+		out.writeInt(k);
+		out.writeInt(tree.size);
+		
+		ArrayDeque<KTree<String>.TreeNode<String>> stack = new ArrayDeque<KTree<String>.TreeNode<String>>();
+		if (tree.root != null)
+			stack.push(tree.root);
+		
+		byte[] mask = new byte[(k + 7) / 8];		// one bit per child of a node.
+		while (!stack.isEmpty())
+		{
+			KTree<String>.TreeNode<String> current = stack.pop();
+			
+			out.writeBoolean(current.value != null);
+			if (current.value != null)
+			{
+				byte[] value = current.value.getBytes(StandardCharsets.UTF_8);
+				if (value.length > MAX_STREAM_VALUE)
+					throw new IOException("value too long to write: " + value.length + " bytes");
+				out.writeInt(value.length);
+				out.write(value);
+			}
+			
+			Arrays.fill(mask, (byte)0);
+			for (int i=k-1; i>=0; i--)		// pushing children in reverse so they are written in order.
+			{
+				if (current.children[i] != null)
+				{
+					mask[i / 8] = (byte)(mask[i / 8] | (1 << (i % 8)));
+					stack.push(current.children[i]);
+				}
+			}
+			out.write(mask);
+		}
+	}
+	
+	
+	/**
+	 * Method that reads a tree of Strings written by the method write. The nodes are linked while they are read, with a
+	 * stack of the nodes whose children are still being read, and the size, height and number of nodes per level of
+	 * the tree are calculated along the way. The k factor and the lengths of the values are checked before anything
+	 * is allocated with them, so a corrupted stream fails with an IOException instead of allocating whatever it asks.
+	 * @param in DataInput where the tree is read from.
+	 * @return KTree<String> with the tree read.
+	 * @throws IOException if the tree can not be read or it is not valid.
+	 */
+	public static KTree<String> read(DataInput in) throws IOException
+	{
+		int k = in.readInt();
+		int expectedSize = in.readInt();
+		if (k < 2 || k > MAX_STREAM_K || expectedSize < 0)
+			throw new IOException("invalid tree header");
+		
+		KTree<String> tree = new KTree<String>(k);
+		if (expectedSize == 0)
+			return tree;
+		
+		ArrayDeque<KTree<String>.TreeNode<String>> nodes = new ArrayDeque<KTree<String>.TreeNode<String>>();
+		ArrayDeque<byte[]> masks = new ArrayDeque<byte[]>();	// children that exist for each node of the stack.
+		int[] nextSlot = new int[16];		// next child to read for each node of the stack.
+		int[] levels = new int[16];			// level of each node of the stack.
+		
+		tree.root = tree.readNode(in);
+		nodes.push(tree.root);
+		masks.push(readMask(in, k));
+		levels[0] = 0;
+		nextSlot[0] = 0;
+		tree.size = 1;
+		tree.countLevel(0);
+		
+		while (!nodes.isEmpty())
+		{
+			int top = nodes.size() - 1;
+			byte[] mask = masks.peek();
+			int slot = nextSlot[top];
+			while (slot < k && (mask[slot / 8] & (1 << (slot % 8))) == 0)	// skipping the children that do not exist.
+				slot++;
+			
+			if (slot == k)			// every child of the node was read.
+			{
+				nodes.pop();
+				masks.pop();
+				continue;
+			}
+			
+			nextSlot[top] = slot + 1;
+			KTree<String>.TreeNode<String> child = tree.readNode(in);
+			nodes.peek().children[slot] = child;
 			
-			if (!hasChildren(current, tree.kFactor))	// if current node visited is a leaf
+			int level = levels[top] + 1;
+			if (++tree.size > expectedSize)
+				throw new IOException("tree has more nodes than expected");
+			tree.countLevel(level);
+			if (level > tree.height)
+				tree.height = level;
+			
+			if (top + 1 == levels.length)
 			{
-				message = message + current.value;		// add leaf value to the decoded message
-				current = tree.root;					// goes back to the root of the tree.
+				levels = Arrays.copyOf(levels, levels.length * 2);
+				nextSlot = Arrays.copyOf(nextSlot, nextSlot.length * 2);
 			}
-			move = Character.getNumericValue(codedMessage.charAt(i)); // gets numeric value represented by a char of codedMessage.
+			nodes.push(child);
+			masks.push(readMask(in, k));
+			levels[top + 1] = level;
+			nextSlot[top + 1] = 0;
 		}
 		
-		current = current.children[move];		// moves to the last leaf pointed by the codedMessage
-		message = message + current.value;		// adds the value of the last leaf visited by this method.
-		return message;
+		if (tree.size != expectedSize)
+			throw new IOException("tree has fewer nodes than expected");
+		
+		return tree;
+	}
+	
+	
+	/**
+	 * Helper method that reads the value of a node written by the method write and creates the node.
+	 * @param in DataInput where the value is read from.
+	 * @return TreeNode with the value read and no children.
+	 * @throws IOException if the value can not be read or its length is not valid.
+	 */
+	@SuppressWarnings("unchecked")
+	private TreeNode<E> readNode(DataInput in) throws IOException
+	{
+		String value = null;
+		if (in.readBoolean())
+		{
+			int length = in.readInt();
+			if (length < 0 || length > MAX_STREAM_VALUE)
+				throw new IOException("invalid value length " + length);
+			
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			value = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return new TreeNode<E>((E)value);
+	}
+	
+	
+	/**
+	 * Helper method that reads the bits that tell which children of a node exist.
+	 * @param in DataInput where the bits are read from.
+	 * @param k int K factor of the tree (already checked against MAX_STREAM_K).
+	 * @return byte array with one bit per child.
+	 * @throws IOException if the bits can not be read.
+	 */
+	private static byte[] readMask(DataInput in, int k) throws IOException
+	{
+		byte[] mask = new byte[(k + 7) / 8];
+		in.readFully(mask);
+		return mask;
 	}
 	
 
@@ -886,10 +2364,8 @@ public class KTree<E> implements TreeIterable<E>
 		
 		Object[] subTreeArray = new Object[completeSize];	
 
-		tracer = 0;			// initializing helping variable (tracer) to keep track of index of currently visited node
 		TreeNode<E> newRoot = getTreeNode(root,i); 		// getting the node at index (i), root of the target subtree.
 		
-		tracer = 0;			// re-initializing helping variable (tracer).
 		buildArray(newRoot, subTreeArray);				// building the array representation of the subtree.
 		
 		return (E[]) trimEnd(subTreeArray);  			// trimming the null elements at end of array repr. of the tree.
@@ -920,30 +2396,272 @@ public class KTree<E> implements TreeIterable<E>
 	@SuppressWarnings("unchecked")
 	public E[] mirror()
 	{
-		Object[] arrayTree = toArray();
+		Object[] arrayTree = cachedArray();
 		Object[] mirrorAr = new Object[arrayTree.length];
 
-		int exponent = 0;
-		int levelElementsAccum = 0;
+		for (int d=0; d<=height; d++)		// reversing the tree elements of every level.
+		{
+			int[] range = levelRange(d);
+			appendReversedLevel(arrayTree, mirrorAr, range[0], range[1]);
+		}
 
-		int beginIndex = 0;
-		int endIndex = 0;
+		return (E[])mirrorAr;
+	}
+	
+	
+	/**
+	 * Method that returns a read-only view of the subtree which has the element at location (i) of the tree as the root.
+	 * Nothing is copied: the view works directly on the nodes of this tree and finds the root of the subtree every time
+	 * it is used, so it always reflects the current state of the tree.
+	 * @param i int Index of the node which will be the root of the subtree.
+	 * @return TreeView of the subtree (empty if there is no element at location (i)).
+	 */
+	public TreeView subtreeView(int i)
+	{
+		return new TreeView(i, false);
+	}
+	
+	
+	/**
+	 * Method that returns a read-only view of the mirror image of the tree (the children of every node in reverse
+	 * order). Nothing is copied: indexes are translated when the view is used.
+	 * @return TreeView with the mirror image of the tree.
+	 */
+	public TreeView mirrorView()
+	{
+		return new TreeView(0, true);
+	}
+	
+	
+	/**
+	 * This is a nested class that provides a live read-only view of a part of the tree. A view is described by the
+	 * index of its root in this tree and whether or not it is mirrored, so creating a view costs O(1) and every
+	 * operation translates the indexes of the view into paths of this tree on the fly.
+	 * 
+	 * @author Sergio Delgado
+	 */
+	public class TreeView implements TreeIterable<E>
+	{
+		int rootIndex;			// index of the root of the view in this tree.
+		boolean mirrored;		// whether or not the children of every node are seen in reverse order.
+		
+		/**
+		 * Constructor that initializes the index of the root of the view and whether or not it is mirrored.
+		 */
+		private TreeView(int rootIndex, boolean mirrored)
+		{
+			this.rootIndex = rootIndex;
+			this.mirrored = mirrored;
+		}
+		
+		/**
+		 * Method that returns the node of this tree that is the root of the view.
+		 * @return Generic TreeNode root of the view, or null if it is not part of the tree.
+		 */
+		TreeNode<E> viewRoot()
+		{
+			return nodeAt(root, rootIndex, false);
+		}
+		
+		/**
+		 * Method that returns the child number (i) of a node as seen from the view.
+		 * @param node Generic TreeNode Node of the view.
+		 * @param i int Child number in the view.
+		 * @return Generic TreeNode with the child, or null if there is no such child.
+		 */
+		private TreeNode<E> child(TreeNode<E> node, int i)
+		{
+			return node.children[mirrored ? kFactor-1-i : i];
+		}
+		
+		/**
+		 * This method returns the k factor of the viewed tree.
+		 * @return int value with the max number of children per node of the tree.
+		 */
+		public int getK()
+		{
+			return kFactor;
+		}
+		
+		/**
+		 * Method that returns the data of the node located in the index (i) of the view.
+		 * @param i int Represents the index of a node in the view.
+		 * @return E value with the data of the node, or null if there is no node at index (i).
+		 */
+		public E get(int i)
+		{
+			TreeNode<E> viewRoot = viewRoot();
+			if (viewRoot == null)
+				return null;
+			
+			TreeNode<E> target = nodeAt(viewRoot, i, mirrored);
+			return (target == null) ? null : target.value;
+		}
 		
-		for (int i=0; i<arrayTree.length; i++)	// traversing every element of the original array repr. of the tree.
+		/**
+		 * Method that returns the number of elements of the view. The nodes of the view are counted every time
+		 * this method is called.
+		 * @return int value with the number of elements of the view.
+		 */
+		public int size()
 		{
-			if (i == levelElementsAccum) 		// if we are at the last element of a level of the tree.
+			int count = 0;
+			Iterator<E> it = getPreOrderIterator();
+			while (it.hasNext())
 			{
-				endIndex = i;					// updates variables that keep track of indexes of a level of the tree.
-				exponent++;						//
-				levelElementsAccum = levelElementsAccum + pow(kFactor,exponent);
-
-				appendReversedLevel(arrayTree, mirrorAr, beginIndex, endIndex); // reversing the tree elements of a level
+				it.next();
+				count++;
+			}
+			return count;
+		}
+		
+		/**
+		 * Method that returns a view of the subtree which has the element at location (i) of this view as the root.
+		 * @param i int Index of the node in this view which will be the root of the new view.
+		 * @return TreeView of the subtree, mirrored if this view is mirrored (empty if (i) or the root of this view is
+		 * not a valid location).
+		 * @throws InvalidTreeException if the location of the node in this tree is too big for an index.
+		 */
+		public TreeView subtreeView(int i)
+		{
+			if (i < 0 || rootIndex < 0)
+				return new TreeView(-1, mirrored);
+			
+			int[] path = pathOf(i);
+			long index = rootIndex;
+			for (int d=0; d<path.length; d++)		// translating the path of the view into an index of this tree.
+			{
+				index = (index * kFactor) + (mirrored ? kFactor-1-path[d] : path[d]) + 1;
+				if (index > Integer.MAX_VALUE)
+					throw new InvalidTreeException();
+			}
+			
+			return new TreeView((int)index, mirrored);
+		}
+		
+		/**
+		 * Method that returns the mirror image of this view.
+		 * @return TreeView with the same root and the children of every node in reverse order.
+		 */
+		public TreeView mirrorView()
+		{
+			return new TreeView(rootIndex, !mirrored);
+		}
+		
+		/**
+		 * This overrides the getLevelOrderIterator of the interface (TreeIterable). The nodes are visited with a queue
+		 * while iterating, instead of building the whole traversal before the first element.
+		 */
+		public Iterator<E> getLevelOrderIterator()
+		{
+			ArrayDeque<TreeNode<E>> queue = new ArrayDeque<TreeNode<E>>();
+			TreeNode<E> viewRoot = viewRoot();
+			if (viewRoot != null)
+				queue.add(viewRoot);
+			
+			return new Iterator<E>()
+			{
+				public boolean hasNext()
+				{
+					return !queue.isEmpty();
+				}
+				
+				public E next()
+				{
+					if (queue.isEmpty())
+						throw new NullPointerException("There was no next item on tree");
+					
+					TreeNode<E> current = queue.remove();
+					for (int i=0; i<kFactor; i++)
+						if (child(current, i) != null)
+							queue.add(child(current, i));
+					
+					return current.value;
+				}
+			};
+		}
+		
+		/**
+		 * This overrides the getPreOrderIterator of the interface (TreeIterable). The nodes are visited with a stack
+		 * while iterating, instead of building the whole traversal before the first element.
+		 */
+		public Iterator<E> getPreOrderIterator()
+		{
+			ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
+			TreeNode<E> viewRoot = viewRoot();
+			if (viewRoot != null)
+				stack.push(viewRoot);
+			
+			return new Iterator<E>()
+			{
+				public boolean hasNext()
+				{
+					return !stack.isEmpty();
+				}
 				
-				beginIndex = i+1;
+				public E next()
+				{
+					if (stack.isEmpty())
+						throw new NullPointerException("There was no next item on tree");
+					
+					TreeNode<E> current = stack.pop();
+					for (int i=kFactor-1; i>=0; i--)	// pushing children in reverse so they are visited in order.
+						if (child(current, i) != null)
+							stack.push(child(current, i));
+					
+					return current.value;
+				}
+			};
+		}
+		
+		/**
+		 * This overrides the getPostOrderIterator of the interface (TreeIterable). The nodes are visited with a stack
+		 * of nodes and the number of the next child to visit of each one of them, while iterating.
+		 */
+		public Iterator<E> getPostOrderIterator()
+		{
+			ArrayDeque<TreeNode<E>> stack = new ArrayDeque<TreeNode<E>>();
+			ArrayDeque<Integer> nextChild = new ArrayDeque<Integer>();
+			TreeNode<E> viewRoot = viewRoot();
+			if (viewRoot != null)
+			{
+				stack.push(viewRoot);
+				nextChild.push(0);
 			}
-		}		
-
-		return (E[])mirrorAr;
+			
+			return new Iterator<E>()
+			{
+				public boolean hasNext()
+				{
+					return !stack.isEmpty();
+				}
+				
+				public E next()
+				{
+					if (stack.isEmpty())
+						throw new NullPointerException("There was no next item on tree");
+					
+					while (true)
+					{
+						TreeNode<E> current = stack.peek();
+						int i = nextChild.pop();
+						
+						while (i < kFactor && child(current, i) == null)	// skipping the missing children.
+							i++;
+						
+						if (i == kFactor)			// every child was visited, so this node is next.
+						{
+							stack.pop();
+							return current.value;
+						}
+						
+						nextChild.push(i + 1);				// going down to the next child of the current node.
+						stack.push(child(current, i));
+						nextChild.push(0);
+					}
+				}
+			};
+		}
 	}
 	
 	
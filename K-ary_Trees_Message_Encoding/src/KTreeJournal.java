@@ -0,0 +1,330 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps a code tree (KTree<String>) recoverable after a restart without building it again from its array
+ * representation. Every change made through the journal is first appended to a log file as a small binary record and
+ * then applied to the tree. From time to time the whole tree is written to a snapshot file (with KTree.write()) and
+ * the log is emptied, so recovering the tree only takes reading the snapshot and replaying the few records written
+ * after it.
+ *
+ * Log records hold the index and the value of a set() call followed by a CRC32 checksum. A record that was only partly
+ * written when the process stopped (a torn tail) fails its checksum or ends early, and it is dropped along with
+ * anything after it. The snapshot and the log carry a generation number: a log older than the snapshot (left behind
+ * if the process stopped right after writing the snapshot) is already part of the snapshot and is not replayed.
+ *
+ * @author Sergio Delgado
+ */
+public class KTreeJournal implements Closeable
+{
+	static final int SNAPSHOT_MAGIC = 0x4B54534E;	// "KTSN", first four bytes of a snapshot file.
+	static final int LOG_MAGIC = 0x4B544A4C;		// "KTJL", first four bytes of a log file.
+	static final int LOG_HEADER = 12;				// bytes of the header of a log file (magic and generation).
+
+	final File snapshotFile;		// file with the last snapshot of the tree.
+	final File logFile;				// file with the changes made after the last snapshot.
+	final int snapshotInterval;		// number of records after which a snapshot is taken (0 for never).
+	final boolean sync;				// whether or not every record is forced to the disk before applying it.
+	final ByteArrayOutputStream record;	// buffer used to build each record.
+	final CRC32 checksum;			// checksum of each record.
+
+	KTree<String> tree;				// tree kept by the journal (null until it is recovered).
+	long generation;				// generation of the last snapshot.
+	long records;					// number of records in the log.
+	FileOutputStream logStream;		// stream used to append records to the log.
+	DataOutputStream log;			// buffered data stream over (logStream).
+
+	/**
+	 * Constructor that initializes the journal with its files. Nothing is read until recover() is called.
+	 * @param snapshotFile File where the snapshots of the tree are written.
+	 * @param logFile File where the changes made after the last snapshot are written.
+	 * @param snapshotInterval int Number of records after which a snapshot is taken automatically (0 for never).
+	 * @param sync boolean Whether or not every record is forced to the disk before the change is applied.
+	 */
+	public KTreeJournal(File snapshotFile, File logFile, int snapshotInterval, boolean sync)
+	{
+		if (snapshotInterval < 0)
+			throw new IllegalArgumentException("negative snapshot interval");
+
+		this.snapshotFile = snapshotFile;
+		this.logFile = logFile;
+		this.snapshotInterval = snapshotInterval;
+		this.sync = sync;
+		record = new ByteArrayOutputStream();
+		checksum = new CRC32();
+	}
+
+	/**
+	 * Method that recovers the tree from the last snapshot and the records written after it, and opens the log to
+	 * append new records. A torn record at the end of the log is removed from the file.
+	 * @param k int K factor of the tree if there is no snapshot yet (an empty tree is created).
+	 * @return KTree<String> recovered, which should only be changed through the journal from now on.
+	 * @throws IOException if the files can not be read or written, or they are not valid.
+	 */
+	public KTree<String> recover(int k) throws IOException
+	{
+		if (tree != null)
+			throw new IllegalStateException("journal already recovered");
+
+		generation = 0;
+		if (snapshotFile.exists())
+		{
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile))))
+			{
+				if (in.readInt() != SNAPSHOT_MAGIC)
+					throw new IOException("not a snapshot file: " + snapshotFile);
+				generation = in.readLong();
+				tree = KTree.read(in);
+			}
+		}
+		else
+			tree = new KTree<String>(new String[0], k);
+
+		long validLength = replay();
+		if (validLength < 0)		// no log, a torn header or a log already included in the snapshot.
+			startLog();
+		else
+		{
+			try (RandomAccessFile file = new RandomAccessFile(logFile, "rw"))
+			{
+				if (file.length() > validLength)		// dropping the torn tail.
+					file.setLength(validLength);
+			}
+			logStream = new FileOutputStream(logFile, true);
+			log = new DataOutputStream(new BufferedOutputStream(logStream));
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Helper method that applies the records of the log to the tree, until the end of the file or the first record that
+	 * is not complete or fails its checksum. Records that failed when they were first applied fail the same way again.
+	 * @return long value with the length of the valid part of the log, or -1 if the log has to be started again.
+	 * @throws IOException if the log can not be read or it is newer than the snapshot.
+	 */
+	private long replay() throws IOException
+	{
+		if (!logFile.exists() || logFile.length() < LOG_HEADER)
+			return -1;
+
+		records = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile))))
+		{
+			if (in.readInt() != LOG_MAGIC)
+				throw new IOException("not a journal log file: " + logFile);
+			long logGeneration = in.readLong();
+			if (logGeneration < generation)
+				return -1;
+			if (logGeneration > generation)
+				throw new IOException("journal log is newer than the snapshot");
+
+			long validLength = LOG_HEADER;
+			while (true)
+			{
+				int index;
+				String value;
+				try
+				{
+					index = in.readInt();
+					int length = in.readInt();
+					if (length < -1 || length > logFile.length())		// corrupted length, part of a torn record.
+						return validLength;
+
+					byte[] bytes = (length < 0) ? null : new byte[length];
+					if (bytes != null)
+						in.readFully(bytes);
+					int expected = in.readInt();
+
+					if (expected != checksum(index, length, bytes))
+						return validLength;
+					value = (bytes == null) ? null : new String(bytes, StandardCharsets.UTF_8);
+					validLength = validLength + 12 + Math.max(length, 0);
+				}
+				catch (EOFException e)			// record not complete.
+				{
+					return validLength;
+				}
+
+				try
+				{
+					tree.set(index, value);
+				}
+				catch (RuntimeException e)		// the change also failed when it was made, and it left the tree as it was.
+				{
+				}
+				records++;
+			}
+		}
+	}
+
+	/**
+	 * Helper method that starts an empty log for the current generation.
+	 * @throws IOException if the log can not be written.
+	 */
+	private void startLog() throws IOException
+	{
+		if (log != null)
+			log.close();
+
+		logStream = new FileOutputStream(logFile, false);
+		log = new DataOutputStream(new BufferedOutputStream(logStream));
+		log.writeInt(LOG_MAGIC);
+		log.writeLong(generation);
+		log.flush();
+		logStream.getFD().sync();
+		records = 0;
+	}
+
+	/**
+	 * Helper method that returns the checksum of the contents of a record.
+	 * @param index int Index of the change.
+	 * @param length int Length of the value in bytes (-1 for null).
+	 * @param bytes byte array with the value in UTF-8 (null for null).
+	 * @return int value with the CRC32 of the record.
+	 */
+	private int checksum(int index, int length, byte[] bytes)
+	{
+		checksum.reset();
+		for (int shift=24; shift>=0; shift-=8)
+			checksum.update(index >>> shift);
+		for (int shift=24; shift>=0; shift-=8)
+			checksum.update(length >>> shift);
+		if (bytes != null)
+			checksum.update(bytes, 0, bytes.length);
+		return (int)checksum.getValue();
+	}
+
+	/**
+	 * Method that sets a value into the tree like KTree.set(), after appending the change to the log. A snapshot is
+	 * taken when the log reaches the snapshot interval.
+	 * @param i int Index of the node in the tree.
+	 * @param v String value to set into the node (null to delete it).
+	 * @return boolean value that represents whether or not the setting was successful.
+	 * @throws IOException if the record can not be written.
+	 */
+	public boolean set(int i, String v) throws IOException
+	{
+		if (tree == null || log == null)
+			throw new IllegalStateException("journal not recovered or already closed");
+
+		byte[] bytes = (v == null) ? null : v.getBytes(StandardCharsets.UTF_8);
+		int length = (bytes == null) ? -1 : bytes.length;
+
+		record.reset();
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeInt(i);
+		out.writeInt(length);
+		if (bytes != null)
+			out.write(bytes);
+		out.writeInt(checksum(i, length, bytes));
+
+		record.writeTo(log);			// the record is written before the change is applied.
+		log.flush();
+		if (sync)
+			logStream.getFD().sync();
+		records++;
+
+		boolean success = tree.set(i, v);
+
+		if (snapshotInterval > 0 && records >= snapshotInterval)
+			snapshot();
+		return success;
+	}
+
+	/**
+	 * Method that writes the whole tree to the snapshot file and empties the log. The snapshot is written to a
+	 * temporary file first and then moved over the previous one, so there is always a complete snapshot on disk.
+	 * @throws IOException if the snapshot or the log can not be written.
+	 */
+	public void snapshot() throws IOException
+	{
+		if (tree == null)
+			throw new IllegalStateException("journal not recovered");
+
+		File temporary = new File(snapshotFile.getPath() + ".tmp");
+		try (FileOutputStream file = new FileOutputStream(temporary))
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+			out.writeInt(SNAPSHOT_MAGIC);
+			out.writeLong(generation + 1);
+			KTree.write(tree, out);
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporary.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		syncDirectory(snapshotFile);	// the move must be on disk before the log of the next generation.
+
+		generation++;
+		startLog();						// the records written so far are part of the snapshot now.
+	}
+
+	/**
+	 * Helper method that forces to the disk the directory that holds a file, so a rename into it survives a power
+	 * loss. Otherwise the new log header could reach the disk while the snapshot it belongs to does not, and the
+	 * records of the old log would be lost with it. This is only done where the platform allows it: some systems
+	 * (like Windows) do not open directories as files, and there the rename is left to the file system.
+	 * @param file File whose directory is forced.
+	 */
+	private static void syncDirectory(File file)
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ))
+		{
+			channel.force(true);
+		}
+		catch (IOException e)		// directories can not be opened or forced on this platform.
+		{
+		}
+	}
+
+	/**
+	 * Method that returns the tree kept by the journal.
+	 * @return KTree<String> kept by the journal (null until it is recovered).
+	 */
+	public KTree<String> getTree()
+	{
+		return tree;
+	}
+
+	/**
+	 * Method that returns the number of records in the log, which is the number of changes replayed by recover() if
+	 * the process stopped now.
+	 * @return long value with the number of records written after the last snapshot.
+	 */
+	public long getRecordCount()
+	{
+		return records;
+	}
+
+	/**
+	 * Method that closes the log. The tree is not written to a snapshot.
+	 * @throws IOException if the log can not be closed.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (log != null)
+		{
+			log.close();
+			log = null;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * This class encodes long messages with a code tree (KTree<String>) using all the available processors. The output
+ * position of each symbol depends on the lengths of the codes of every symbol before it, so the message is split in
+ * chunks and encoded in three steps:
+ *   1. the total length of the codes of each chunk is calculated (in parallel),
+ *   2. the lengths are turned into the output position of each chunk with a parallel prefix sum,
+ *   3. the codes of each chunk are copied into its part of a single output array (in parallel).
+ * The result is the same coded message an encoder would write one symbol at a time, and KTree.decode() returns the
+ * original message for it. Digits are written like KTree.decode() reads them: 0-9 and then a-z.
+ *
+ * @author Sergio Delgado
+ */
+public class ParallelEncoder
+{
+	static final int MIN_CHUNK = 1 << 14;	// min number of symbols per chunk, smaller chunks are not worth a task.
+
+	final int kFactor;						// k factor of the code tree.
+	final HashMap<String, char[]> codes;	// digits of the code of every symbol of the code tree.
+	final char[][] asciiCodes;				// digits of the code of every one-character ASCII symbol (null if none).
+
+	/**
+	 * Constructor that finds the code of every leaf of a code tree. When two leaves hold the same symbol, the one
+	 * found first in Pre-Order is used.
+	 * @param tree KTree<String> Code tree used to encode.
+	 * @throws InvalidKException if the k factor of the tree is smaller than 2 or bigger than 36.
+	 * @throws InvalidTreeException if the tree is not a valid code tree (see CodeTreeDecoder.compile()).
+	 */
+	public ParallelEncoder(KTree<String> tree)
+	{
+		CodeTreeDecoder.compile(tree);		// checking that the tree is a valid code tree.
+		if (tree.kFactor > Character.MAX_RADIX)
+			throw new InvalidKException();
+
+		kFactor = tree.kFactor;
+		codes = new HashMap<String, char[]>();
+		asciiCodes = new char[128][];
+
+		ArrayDeque<KTree<String>.TreeNode<String>> nodes = new ArrayDeque<KTree<String>.TreeNode<String>>();
+		ArrayDeque<String> paths = new ArrayDeque<String>();	// digits of the path to each node of the stack.
+		nodes.push(tree.root);
+		paths.push("");
+
+		while (!nodes.isEmpty())			// Pre-Order traversal, children are pushed from the last one.
+		{
+			KTree<String>.TreeNode<String> current = nodes.pop();
+			String path = paths.pop();
+			boolean leaf = true;
+
+			for (int i=kFactor-1; i>=0; i--)
+			{
+				if (current.children[i] != null)
+				{
+					nodes.push(current.children[i]);
+					paths.push(path + Character.forDigit(i, kFactor));
+					leaf = false;
+				}
+			}
+
+			if (leaf && !codes.containsKey(current.value))
+			{
+				char[] code = path.toCharArray();
+				codes.put(current.value, code);
+				if (current.value.length() == 1 && current.value.charAt(0) < 128)
+					asciiCodes[current.value.charAt(0)] = code;
+			}
+		}
+	}
+
+	/**
+	 * Method that returns the code of a symbol.
+	 * @param symbol String Symbol of the code tree.
+	 * @return String with the digits of the code, or null if the symbol is not in the code tree.
+	 */
+	public String getCode(String symbol)
+	{
+		char[] code = codes.get(symbol);
+		return (code == null) ? null : new String(code);
+	}
+
+	/**
+	 * Method that encodes a message given as a sequence of symbols.
+	 * @param symbols String array with the symbols of the message.
+	 * @return String with the coded message.
+	 * @throws IllegalArgumentException if a symbol is not in the code tree or the coded message is too long.
+	 */
+	public String encode(String[] symbols)
+	{
+		return encode(symbols.length, i -> codes.get(symbols[i]));
+	}
+
+	/**
+	 * Method that encodes a text where every character is a symbol of the code tree.
+	 * @param text CharSequence with the message.
+	 * @return String with the coded message.
+	 * @throws IllegalArgumentException if a character is not a symbol of the code tree or the coded message is too long.
+	 */
+	public String encode(CharSequence text)
+	{
+		return encode(text.length(), i ->
+		{
+			char c = text.charAt(i);
+			return (c < 128) ? asciiCodes[c] : codes.get(String.valueOf(c));
+		});
+	}
+
+	/**
+	 * Helper method that encodes a message in chunks, placing the codes of each chunk with a prefix sum of the lengths
+	 * of the chunks before it.
+	 * @param count int Number of symbols of the message.
+	 * @param codeAt IntFunction that returns the code of the symbol at each position (null if there is no code).
+	 * @return String with the coded message.
+	 * @throws IllegalArgumentException if a symbol has no code or the coded message is too long.
+	 */
+	private String encode(int count, IntFunction<char[]> codeAt)
+	{
+		int chunks = Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), count / MIN_CHUNK));
+		long chunkSize = ((long)count + chunks - 1) / chunks;
+
+		long[] ends = new long[chunks];		// length of the codes of each chunk, then the end of each chunk in the output.
+		IntStream.range(0, chunks).parallel().forEach(c ->
+		{
+			long length = 0;
+			for (int i=(int)(c * chunkSize); i<Math.min(count, (c + 1) * chunkSize); i++)
+			{
+				char[] code = codeAt.apply(i);
+				if (code == null)
+					throw new IllegalArgumentException("symbol at position " + i + " is not in the code tree");
+				length = length + code.length;
+			}
+			ends[c] = length;
+		});
+
+		Arrays.parallelPrefix(ends, Long::sum);
+		long total = (chunks == 0) ? 0 : ends[chunks - 1];
+		if (total > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("coded message is too long for a String");
+
+		char[] coded = new char[(int)total];
+		IntStream.range(0, chunks).parallel().forEach(c ->
+		{
+			int position = (c == 0) ? 0 : (int)ends[c - 1];		// output position of the chunk.
+			for (int i=(int)(c * chunkSize); i<Math.min(count, (c + 1) * chunkSize); i++)
+			{
+				char[] code = codeAt.apply(i);
+				System.arraycopy(code, 0, coded, position, code.length);
+				position = position + code.length;
+			}
+		});
+
+		return new String(coded);
+	}
+}